@@ -35,6 +35,20 @@ async function request(path, { method = "GET", body } = {}) {
   return res.json().catch(() => ({}));
 }
 
+// 按 nextCursor 逐页读取分页接口，合并各页的列表字段
+async function requestAllPages(path, listField, pageSize = 200) {
+  const items = [];
+  let cursor = "";
+  do {
+    const sep = path.includes("?") ? "&" : "?";
+    const query = `limit=${pageSize}${cursor ? `&cursor=${encodeURIComponent(cursor)}` : ""}`;
+    const page = await request(`${path}${sep}${query}`);
+    items.push(...(page[listField] || []));
+    cursor = page.nextCursor || "";
+  } while (cursor);
+  return { [listField]: items };
+}
+
 // 注册 (Main Account)
 export async function registerMain(payload) {
   // payload: { username, password, email, captchaUuid, captchaCode }
@@ -103,7 +117,7 @@ export function createSubAccount(username, password, email, groupId) {
 }
 
 export function listSubAccounts() {
-  return request(`/api/auth/subaccounts`);
+  return requestAllPages(`/api/auth/subaccounts`, "subAccounts");
 }
 
 // 管理员API
@@ -212,12 +226,12 @@ export function getGroupById(groupId) {
 
 // 获取组成员数量
 export function getGroupMemberCount(groupId) {
-  return request(`/api/group/${groupId}/members`).then(res => res.members?.length || 0);
+  return getGroupMembers(groupId).then(res => res.members.length);
 }
 
-// 查询组成员列表
+// 查询组成员列表（服务端分页，这里逐页读完）
 export function getGroupMembers(groupId) {
-  return request(`/api/group/${groupId}/members`);
+  return requestAllPages(`/api/group/${groupId}/members`, "members");
 }
 
 // 添加组成员
@@ -751,9 +751,11 @@ async function handleDeleteSubAccount(event) {
     const data = await response.json();
 
     if (response.ok && data.ok) {
-      const message = data.deletedBundlesCount > 0
-        ? `子账号已删除，同时删除了 ${data.deletedBundlesCount} 个站点`
-        : '子账号已删除';
+      const message = data.async
+        ? data.message
+        : data.deletedBundlesCount > 0
+          ? `子账号已删除，同时删除了 ${data.deletedBundlesCount} 个站点`
+          : '子账号已删除';
       showMessage("message-subaccounts", `✅ ${message}`, "success");
       loadAccount();
     } else {
@@ -2647,10 +2649,10 @@ async function confirmCacheCleanup() {
     if (response.ok && data.ok) {
       // 关闭对话框
       document.getElementById('cache-cleanup-dialog').classList.remove('show');
-      
-      // 显示成功消息
-      const message = `清理完成！删除了 ${data.deletedSitesCount} 个站点、${data.deletedUsersCount} 个用户、${data.deletedGroupsCount} 个组`;
-      showMessage("message-cache-cleanup", `✅ ${message}`, "success");
+      showMessage("message-cache-cleanup", `⏳ ${data.message}`, "info");
+
+      // 清理在后台分批执行，轮询进度直到结束
+      await pollCacheCleanup();
     } else {
       showMessage("message-cache-cleanup", `❌ 清理失败：${data.error || "未知错误"}`, "error");
     }
@@ -2663,6 +2665,44 @@ async function confirmCacheCleanup() {
   }
 }
 
+// 轮询清理任务进度
+async function pollCacheCleanup() {
+  while (true) {
+    await new Promise((resolve) => setTimeout(resolve, 2000));
+
+    const response = await fetch(`${CONFIG.baseUrl}/api/auth/admin/cache/cleanup`, {
+      headers: {
+        satoken: await getToken(),
+      },
+    });
+    const data = await response.json();
+    if (!response.ok || !data.job) {
+      showMessage("message-cache-cleanup", `❌ 查询清理进度失败：${data.error || "未知错误"}`, "error");
+      return;
+    }
+
+    const job = data.job;
+    const progress = job.progress || {};
+    const summary = `删除了 ${progress.deletedSites || 0} 个站点、${progress.deletedUsers || 0} 个用户、${progress.deletedGroups || 0} 个组`;
+
+    if (job.status === 'SUCCEEDED') {
+      showMessage("message-cache-cleanup", `✅ 清理完成！${summary}`, "success");
+      return;
+    }
+    if (job.status === 'CANCELLED') {
+      showMessage("message-cache-cleanup", `⚠️ 清理已取消，${summary}，再次清理将从断点继续`, "info");
+      return;
+    }
+    if (job.status === 'FAILED') {
+      showMessage("message-cache-cleanup", `❌ 清理失败：${job.error || "未知错误"}，再次清理将从断点继续`, "error");
+      return;
+    }
+
+    const eta = job.etaSeconds != null ? `，预计还需 ${job.etaSeconds} 秒` : '';
+    showMessage("message-cache-cleanup", `⏳ 清理中：${job.processed || 0}/${job.total || '?'}${eta}`, "info");
+  }
+}
+
 // 取消清理
 function cancelCacheCleanup() {
   document.getElementById('cache-cleanup-dialog').classList.remove('show');
@@ -34,7 +34,7 @@ async function loadCaptcha() {
     const res = await getCaptcha();
     if (res.uuid && res.imageBase64) {
       currentCaptchaUuid = res.uuid;
-      elements.captchaImg.src = "data:image/jpeg;base64," + res.imageBase64;
+      elements.captchaImg.src = `data:${res.mimeType || "image/jpeg"};base64,${res.imageBase64}`;
     }
   } catch (e) {
     console.error("Load captcha failed:", e);
@@ -1,5 +1,6 @@
 package app.config;
 
+import app.service.TooManyRequestsException;
 import cn.dev33.satoken.exception.NotLoginException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -16,5 +17,11 @@ public class GlobalExceptionHandler {
                 "message", e.getMessage()
         ));
     }
-}
 
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<?> handleTooManyRequests(TooManyRequestsException e) {
+        return ResponseEntity.status(429)
+                .header("Retry-After", String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", e.getMessage()));
+    }
+}
@@ -0,0 +1,114 @@
+// 说明：运行指标的全局配置，通过管理端口（仅 127.0.0.1）的 /actuator/prometheus 抓取。
+// - 所有 Controller 的请求由 Spring 自动记录为 http.server.requests（按 uri/method/status 标签），这里开启直方图和分位数；
+// - Druid 连接池的使用率、等待线程和获取连接的等待时间；
+// - 已有缓存的累计命中率（由各自的 hit/miss 计数器计算）。
+
+package app.config;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * 请求耗时：发布直方图（可在 Prometheus 侧跨实例聚合）和本机 p50/p95/p99
+     */
+    @Bean
+    public MeterFilter httpServerRequestsDistribution() {
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (!"http.server.requests".equals(id.getName())) {
+                    return config;
+                }
+                return DistributionStatisticConfig.builder()
+                        .percentilesHistogram(true)
+                        .percentiles(0.5, 0.95, 0.99)
+                        .minimumExpectedValue((double) Duration.ofMillis(1).toNanos())
+                        .maximumExpectedValue((double) Duration.ofSeconds(30).toNanos())
+                        .build()
+                        .merge(config);
+            }
+        };
+    }
+
+    /**
+     * Druid 连接池指标（Spring Boot 自带的连接池指标不支持 Druid）
+     */
+    @Bean
+    public MeterBinder druidPoolMetrics(ObjectProvider<DataSource> dataSource) {
+        return registry -> {
+            if (!(dataSource.getIfAvailable() instanceof DruidDataSource druid)) {
+                return;
+            }
+            Gauge.builder("anydoor.db.pool.active", druid, DruidDataSource::getActiveCount)
+                    .description("已借出的连接数")
+                    .register(registry);
+            Gauge.builder("anydoor.db.pool.idle", druid, DruidDataSource::getPoolingCount)
+                    .description("池中空闲连接数")
+                    .register(registry);
+            Gauge.builder("anydoor.db.pool.max", druid, DruidDataSource::getMaxActive)
+                    .description("最大连接数")
+                    .register(registry);
+            Gauge.builder("anydoor.db.pool.utilization", druid,
+                            d -> d.getMaxActive() == 0 ? 0 : (double) d.getActiveCount() / d.getMaxActive())
+                    .description("已借出连接数 / 最大连接数")
+                    .register(registry);
+            Gauge.builder("anydoor.db.pool.waiting", druid, DruidDataSource::getWaitThreadCount)
+                    .description("正在等待连接的线程数")
+                    .register(registry);
+            FunctionCounter.builder("anydoor.db.pool.wait.count", druid, DruidDataSource::getNotEmptyWaitCount)
+                    .description("获取连接时需要等待的累计次数")
+                    .register(registry);
+            FunctionCounter.builder("anydoor.db.pool.wait.time", druid,
+                            d -> d.getNotEmptyWaitNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+                    .baseUnit("seconds")
+                    .description("获取连接的累计等待时间")
+                    .register(registry);
+        };
+    }
+
+    /**
+     * 缓存命中率：命中次数 / 总查询次数，尚无查询时为 NaN
+     */
+    @Bean
+    public MeterBinder cacheHitRatios() {
+        return registry -> {
+            hitRatio(registry, "anydoor.share.token_cache", List.of("hit", "negative_hit"));
+            hitRatio(registry, "anydoor.session.cache", List.of("hit", "negative_hit"));
+            hitRatio(registry, "anydoor.captcha.pool", List.of("hit"));
+        };
+    }
+
+    private static void hitRatio(MeterRegistry registry, String name, List<String> hitResults) {
+        Gauge.builder(name + ".hit_ratio", registry, r -> {
+                    double hits = 0;
+                    double total = 0;
+                    for (Counter counter : r.find(name).counters()) {
+                        total += counter.count();
+                        if (hitResults.contains(counter.getId().getTag("result"))) {
+                            hits += counter.count();
+                        }
+                    }
+                    return total == 0 ? Double.NaN : hits / total;
+                })
+                .description("缓存累计命中率")
+                .register(registry);
+    }
+}
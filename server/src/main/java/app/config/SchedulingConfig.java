@@ -0,0 +1,12 @@
+// 说明：开启 @Scheduled 定时任务（限流桶回收、会话过期清理等后台维护任务）。
+// 线程池大小由 spring.task.scheduling.pool.size 配置。
+
+package app.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
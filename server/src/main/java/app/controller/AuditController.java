@@ -0,0 +1,201 @@
+// 审计日志查询 Controller
+// 仅 GLOBAL_ADMIN 可用：按条件分页查询，以及按同样条件流式导出 CSV / NDJSON
+
+package app.controller;
+
+import app.model.AuditLog;
+import app.model.dto.KeysetCursor;
+import app.service.AuditQueryService;
+import app.service.AuditQueryService.AuditFilter;
+import app.service.UserService;
+import cn.dev33.satoken.stp.StpUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/audit")
+public class AuditController {
+    private static final int MAX_AUDIT_PAGE_SIZE = 500;
+
+    private static final String CSV_HEADER =
+            "id,createdAt,userId,action,resourceType,resourceId,result,ipAddress,userAgent,errorMessage\n";
+
+    private final AuditQueryService auditQueryService;
+    private final UserService userService;
+    private final ObjectMapper om = new ObjectMapper();
+
+    public AuditController(AuditQueryService auditQueryService, UserService userService) {
+        this.auditQueryService = auditQueryService;
+        this.userService = userService;
+    }
+
+    /**
+     * 分页查询审计日志（按时间倒序）
+     */
+    @GetMapping
+    public ResponseEntity<?> list(@RequestParam(required = false) Long from,
+                                  @RequestParam(required = false) Long to,
+                                  @RequestParam(required = false) String userId,
+                                  @RequestParam(required = false) String action,
+                                  @RequestParam(required = false) String resourceType,
+                                  @RequestParam(required = false) String resourceId,
+                                  @RequestParam(required = false) String cursor,
+                                  @RequestParam(defaultValue = "100") int limit) {
+        ResponseEntity<?> denied = checkAdmin();
+        if (denied != null) {
+            return denied;
+        }
+
+        AuditFilter filter = new AuditFilter(userId, action, resourceType, resourceId, from, to);
+        AuditQueryService.AuditPage page;
+        try {
+            int pageSize = Math.max(1, Math.min(limit, MAX_AUDIT_PAGE_SIZE));
+            page = auditQueryService.page(filter, KeysetCursor.parse(cursor), pageSize);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("events", page.events());
+        resp.put("count", page.events().size());
+        resp.put("nextCursor", page.nextCursor());
+        resp.put("hasMore", page.nextCursor() != null);
+        return ResponseEntity.ok(resp);
+    }
+
+    /**
+     * 流式导出审计日志
+     * 边查边写，响应体不在内存中累积
+     *
+     * @param format csv 或 ndjson
+     */
+    @GetMapping("/export")
+    public ResponseEntity<?> export(@RequestParam(required = false) Long from,
+                                    @RequestParam(required = false) Long to,
+                                    @RequestParam(required = false) String userId,
+                                    @RequestParam(required = false) String action,
+                                    @RequestParam(required = false) String resourceType,
+                                    @RequestParam(required = false) String resourceId,
+                                    @RequestParam(defaultValue = "csv") String format) {
+        ResponseEntity<?> denied = checkAdmin();
+        if (denied != null) {
+            return denied;
+        }
+
+        boolean csv = "csv".equalsIgnoreCase(format);
+        if (!csv && !"ndjson".equalsIgnoreCase(format)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "不支持的导出格式"));
+        }
+
+        AuditFilter filter = new AuditFilter(userId, action, resourceType, resourceId, from, to);
+        try {
+            // 在开始写响应前校验，避免输出半截内容后才报错
+            auditQueryService.validate(filter);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            if (csv) {
+                writer.write(CSV_HEADER);
+            }
+            try {
+                auditQueryService.export(filter, event -> {
+                    try {
+                        if (csv) {
+                            writeCsvRow(writer, event);
+                        } else {
+                            writer.write(om.writeValueAsString(event));
+                            writer.write('\n');
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                // 客户端断开时停止读取后续分块
+                throw e.getCause();
+            }
+            writer.flush();
+        };
+
+        String filename = "audit-" + from + "-" + to + (csv ? ".csv" : ".ndjson");
+        MediaType type = csv
+                ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                : new MediaType("application", "x-ndjson", StandardCharsets.UTF_8);
+        return ResponseEntity.ok()
+                .contentType(type)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .body(body);
+    }
+
+    private ResponseEntity<?> checkAdmin() {
+        if (!StpUtil.isLogin()) {
+            return ResponseEntity.status(401).body(Map.of("error", "未登录"));
+        }
+
+        String currentUserId = String.valueOf(StpUtil.getLoginId());
+        boolean isAdmin = userService.getUserById(currentUserId)
+                .map(u -> "GLOBAL_ADMIN".equals(u.role))
+                .orElse(false);
+        if (!isAdmin) {
+            return ResponseEntity.status(403).body(Map.of("error", "权限不足"));
+        }
+        return null;
+    }
+
+    private static void writeCsvRow(Writer writer, AuditLog event) throws IOException {
+        writer.write(csvField(event.id));
+        writer.write(',');
+        writer.write(String.valueOf(event.createdAt));
+        writer.write(',');
+        writer.write(csvField(event.userId));
+        writer.write(',');
+        writer.write(csvField(event.action));
+        writer.write(',');
+        writer.write(csvField(event.resourceType));
+        writer.write(',');
+        writer.write(csvField(event.resourceId));
+        writer.write(',');
+        writer.write(csvField(event.result));
+        writer.write(',');
+        writer.write(csvField(event.ipAddress));
+        writer.write(',');
+        writer.write(csvField(event.userAgent));
+        writer.write(',');
+        writer.write(csvField(event.errorMessage));
+        writer.write('\n');
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        // 防止 CSV 公式注入：表格软件会把这些字符开头的单元格当作公式执行，前置单引号使其按文本显示
+        if (!value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0) {
+            value = "'" + value;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -5,41 +5,68 @@
 package app.controller;
 
 import app.model.User;
-import app.model.dto.CleanupResult;
+import app.model.dto.KeysetCursor;
 import app.model.dto.OrphanedDataStats;
 import app.model.dto.UpdateSubAccountRequest;
+import app.service.AccountDeletionService;
+import app.service.AuditService;
+import app.service.BackgroundJob;
+import app.service.BackgroundJobService;
+import app.service.CacheCleanupService;
+import app.service.CompactionService;
 import app.service.BundleService;
 import app.service.GroupService;
 import app.service.UserService;
 import app.service.CaptchaService;
+import app.service.LoginRateLimiter;
+import app.service.TooManyRequestsException;
 import cn.dev33.satoken.stp.StpUtil;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/auth")
 public class AuthController {
+    private static final int DEFAULT_SUB_ACCOUNT_PAGE_SIZE = 100;
+    private static final int MAX_SUB_ACCOUNT_PAGE_SIZE = 500;
+    // 批量创建子账号 CSV 的最大字节数（约 1000 行）
+    private static final int MAX_BULK_CSV_BYTES = 256 * 1024;
 
     private final UserService userService;
     private final GroupService groupService;
     private final BundleService bundleService;
     private final CaptchaService captchaService;
-    private final app.service.CacheCleanupService cacheCleanupService;
+    private final CacheCleanupService cacheCleanupService;
     private final app.service.LinuxDoAuthService linuxDoAuthService;
+    private final LoginRateLimiter loginRateLimiter;
+    private final AccountDeletionService accountDeletionService;
+    private final BackgroundJobService backgroundJobService;
+    private final CompactionService compactionService;
+    private final AuditService auditService;
 
-    public AuthController(UserService userService, GroupService groupService, BundleService bundleService, CaptchaService captchaService, app.service.CacheCleanupService cacheCleanupService, app.service.LinuxDoAuthService linuxDoAuthService) {
+    public AuthController(UserService userService, GroupService groupService, BundleService bundleService, CaptchaService captchaService, CacheCleanupService cacheCleanupService, app.service.LinuxDoAuthService linuxDoAuthService, LoginRateLimiter loginRateLimiter, AccountDeletionService accountDeletionService, BackgroundJobService backgroundJobService, CompactionService compactionService, AuditService auditService) {
         this.userService = userService;
         this.groupService = groupService;
         this.bundleService = bundleService;
         this.captchaService = captchaService;
         this.cacheCleanupService = cacheCleanupService;
         this.linuxDoAuthService = linuxDoAuthService;
+        this.loginRateLimiter = loginRateLimiter;
+        this.accountDeletionService = accountDeletionService;
+        this.backgroundJobService = backgroundJobService;
+        this.compactionService = compactionService;
+        this.auditService = auditService;
     }
 
     public record LoginReq(String username, String password) {
@@ -110,20 +137,27 @@ public class AuthController {
      * 用户登录
      */
     @PostMapping("/login")
-    public ResponseEntity<?> login(@RequestBody LoginReq req, HttpServletResponse resp) {
+    public ResponseEntity<?> login(@RequestBody LoginReq req, HttpServletRequest request, HttpServletResponse resp) {
         if (req == null || isBlank(req.username()) || isBlank(req.password())) {
             return ResponseEntity.badRequest().body(Map.of("error", "用户名和密码不能为空"));
         }
 
         try {
+            // 限流：在查询数据库和 BCrypt 校验之前拒绝
+            loginRateLimiter.acquire(req.username(), request.getRemoteAddr());
+
             // 真实认证
             Optional<User> userOpt = userService.authenticate(req.username(), req.password());
 
             if (userOpt.isEmpty()) {
+                // 只记录固定原因，不记录用户提交的用户名（可能是输错到用户名框里的密码）
+                auditService.record(null, AuditService.LOGIN, AuditService.USER, null, false, "invalid credentials");
                 return ResponseEntity.status(401).body(Map.of("error", "用户名或密码错误"));
             }
 
             User user = userOpt.get();
+            loginRateLimiter.onSuccess(req.username());
+            auditService.record(user.id, AuditService.LOGIN, AuditService.USER, user.id, true, null);
 
             // 登录成功，创建会话
             StpUtil.login(user.id);
@@ -140,6 +174,10 @@ public class AuthController {
             respMap.put("username", user.username);
             respMap.put("role", user.role);
             return ResponseEntity.ok(respMap);
+        } catch (TooManyRequestsException e) {
+            auditService.record(null, AuditService.LOGIN, AuditService.USER, null, false, "rate limited");
+            // 由 GlobalExceptionHandler 统一返回 429，不被下面的通用异常处理吞掉
+            throw e;
         } catch (IllegalStateException e) {
             return ResponseEntity.status(403).body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
@@ -211,6 +249,8 @@ public class AuthController {
                     "ok", true,
                     "message", "密码修改成功"
             ));
+        } catch (TooManyRequestsException e) {
+            throw e;
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
@@ -269,11 +309,156 @@ public class AuthController {
         }
     }
 
+    /**
+     * 批量创建子账号（JSON 数组）
+     */
+    @PostMapping(value = "/subaccounts/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> createSubAccountsJson(@RequestBody List<CreateSubAccountReq> reqs) {
+        if (reqs == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "子账号列表不能为空"));
+        }
+        return createSubAccounts(reqs.stream()
+                .map(r -> r == null ? null : new UserService.SubAccountSpec(r.username(), r.password(), r.email(), r.groupId()))
+                .toList());
+    }
+
+    /**
+     * 批量创建子账号（CSV：username,password,email,groupId，首行可为表头）
+     */
+    @PostMapping(value = "/subaccounts/bulk", consumes = "text/csv")
+    public ResponseEntity<?> createSubAccountsCsv(HttpServletRequest request) throws java.io.IOException {
+        // 先鉴权再读取请求体
+        ResponseEntity<?> denied = checkSubAccountCreator();
+        if (denied != null) {
+            return denied;
+        }
+
+        // 最多读取 MAX_BULK_CSV_BYTES，超出直接拒绝，不会把任意大的请求体读进内存
+        byte[] body = request.getInputStream().readNBytes(MAX_BULK_CSV_BYTES + 1);
+        if (body.length > MAX_BULK_CSV_BYTES) {
+            return ResponseEntity.status(413).body(Map.of("error", "CSV 文件过大"));
+        }
+
+        List<UserService.SubAccountSpec> specs = new ArrayList<>();
+        try (java.io.BufferedReader reader = new java.io.BufferedReader(
+                new java.io.InputStreamReader(new java.io.ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+            String line;
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                List<String> fields = parseCsvLine(line);
+                if (first && !fields.isEmpty() && "username".equalsIgnoreCase(fields.get(0).trim())) {
+                    first = false;
+                    continue;
+                }
+                first = false;
+                if (specs.size() >= UserService.BULK_SUB_ACCOUNT_LIMIT) {
+                    return ResponseEntity.badRequest().body(Map.of("error", "单次最多创建 " + UserService.BULK_SUB_ACCOUNT_LIMIT + " 个子账号"));
+                }
+                // 密码按原样保留，首尾空格也是密码的一部分
+                specs.add(new UserService.SubAccountSpec(
+                        csvField(fields, 0), rawCsvField(fields, 1), csvField(fields, 2), csvField(fields, 3)));
+            }
+        }
+        return createSubAccounts(specs);
+    }
+
+    private ResponseEntity<?> createSubAccounts(List<UserService.SubAccountSpec> specs) {
+        ResponseEntity<?> denied = checkSubAccountCreator();
+        if (denied != null) {
+            return denied;
+        }
+
+        try {
+            String currentUserId = String.valueOf(StpUtil.getLoginId());
+            List<UserService.BulkSubAccountResult> results = userService.createSubAccounts(currentUserId, specs);
+            long created = results.stream().filter(r -> "CREATED".equals(r.status())).count();
+
+            return ResponseEntity.ok(Map.of("ok", true, "created", created, "results", results));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("error", "批量创建子账号失败"));
+        }
+    }
+
+    /**
+     * 检查当前用户能否创建子账号：只有 GROUP_OWNER 和 GLOBAL_ADMIN 可以
+     *
+     * @return 不允许时的错误响应，允许时为 null
+     */
+    private ResponseEntity<?> checkSubAccountCreator() {
+        if (!StpUtil.isLogin()) {
+            return ResponseEntity.status(401).body(Map.of("error", "未登录"));
+        }
+
+        String currentUserId = String.valueOf(StpUtil.getLoginId());
+        Optional<User> currentUserOpt = userService.getUserById(currentUserId);
+        if (currentUserOpt.isEmpty()) {
+            return ResponseEntity.status(404).body(Map.of("error", "当前用户不存在"));
+        }
+
+        User currentUser = currentUserOpt.get();
+        if (!"GROUP_OWNER".equals(currentUser.role) && !"GLOBAL_ADMIN".equals(currentUser.role)) {
+            return ResponseEntity.status(403).body(Map.of("error", "权限不足，只有主账号可以创建子账号"));
+        }
+        return null;
+    }
+
+    /**
+     * 解析一行 CSV，支持双引号包裹的字段（字段内 "" 表示一个引号）
+     */
+    private static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+
+    private static String csvField(List<String> fields, int index) {
+        String value = rawCsvField(fields, index);
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    private static String rawCsvField(List<String> fields, int index) {
+        if (index >= fields.size() || fields.get(index).isEmpty()) {
+            return null;
+        }
+        return fields.get(index);
+    }
+
     /**
      * 查询子账号列表（含所属组信息）
      */
     @GetMapping("/subaccounts")
-    public ResponseEntity<?> listSubAccounts() {
+    public ResponseEntity<?> listSubAccounts(
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit
+    ) {
         if (!StpUtil.isLogin()) {
             return ResponseEntity.status(401).body(Map.of("error", "未登录"));
         }
@@ -293,8 +478,17 @@ public class AuthController {
                 return ResponseEntity.status(403).body(Map.of("error", "权限不足"));
             }
 
-            // 查询子账号列表（含所属组信息）
-            var subAccounts = userService.getSubAccountsWithGroups(currentUserId);
+            // 查询子账号列表（含所属组信息）；始终分页，未传 limit 时取默认页大小
+            UserService.SubAccountPage page;
+            try {
+                int pageSize = limit == null
+                        ? DEFAULT_SUB_ACCOUNT_PAGE_SIZE
+                        : Math.max(1, Math.min(limit, MAX_SUB_ACCOUNT_PAGE_SIZE));
+                page = userService.listSubAccountsWithGroups(currentUserId, status, KeysetCursor.parse(cursor), pageSize);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            }
+            var subAccounts = page.subAccounts();
 
             // 构建响应
             var subAccountList = subAccounts.stream().map(dto -> {
@@ -308,9 +502,11 @@ public class AuthController {
                 return userMap;
             }).toList();
 
-            return ResponseEntity.ok(Map.of(
-                    "subAccounts", subAccountList
-            ));
+            Map<String, Object> respMap = new HashMap<>();
+            respMap.put("subAccounts", subAccountList);
+            respMap.put("nextCursor", page.nextCursor());
+            respMap.put("hasMore", page.nextCursor() != null);
+            return ResponseEntity.ok(respMap);
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("error", "查询子账号失败"));
         }
@@ -736,13 +932,7 @@ public class AuthController {
 
             if (cascade) {
                 // 级联删除
-                int deletedBundlesCount = userService.deleteSubAccountWithCascade(subAccountId, currentUserId);
-
-                return ResponseEntity.ok(Map.of(
-                        "ok", true,
-                        "message", "子账号已删除",
-                        "deletedBundlesCount", deletedBundlesCount
-                ));
+                return deletionResponse(accountDeletionService.deleteSubAccount(subAccountId, currentUserId), "子账号已删除");
             } else {
                 // 普通删除（保留站点）
                 userService.deleteUser(subAccountId);
@@ -752,6 +942,8 @@ public class AuthController {
                         "message", "子账号已删除"
                 ));
             }
+        } catch (TooManyRequestsException e) {
+            throw e;
         } catch (IllegalStateException e) {
             return ResponseEntity.status(403).body(Map.of("error", e.getMessage()));
         } catch (IllegalArgumentException e) {
@@ -761,6 +953,28 @@ public class AuthController {
         }
     }
 
+    /**
+     * 查询后台任务进度（仅任务提交者或管理员）
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<?> getJob(@PathVariable String jobId) {
+        if (!StpUtil.isLogin()) {
+            return ResponseEntity.status(401).body(Map.of("error", "未登录"));
+        }
+
+        String currentUserId = String.valueOf(StpUtil.getLoginId());
+        Optional<BackgroundJob> jobOpt = backgroundJobService.get(jobId);
+        if (jobOpt.isEmpty()) {
+            return ResponseEntity.status(404).body(Map.of("error", "任务不存在或已过期"));
+        }
+
+        BackgroundJob job = jobOpt.get();
+        if (!currentUserId.equals(job.getOwnerId()) && !isGlobalAdmin(currentUserId)) {
+            return ResponseEntity.status(403).body(Map.of("error", "无权查看此任务"));
+        }
+        return ResponseEntity.ok(job.toView());
+    }
+
     /**
      * 子账号管理 - 删除（旧接口，保持向后兼容）
      */
@@ -781,13 +995,9 @@ public class AuthController {
             String currentUserId = String.valueOf(StpUtil.getLoginId());
 
             // 默认使用级联删除
-            int deletedBundlesCount = userService.deleteSubAccountWithCascade(req.subAccountId(), currentUserId);
-
-            return ResponseEntity.ok(Map.of(
-                    "ok", true,
-                    "message", "子账号已删除",
-                    "deletedBundlesCount", deletedBundlesCount
-            ));
+            return deletionResponse(accountDeletionService.deleteSubAccount(req.subAccountId(), currentUserId), "子账号已删除");
+        } catch (TooManyRequestsException e) {
+            throw e;
         } catch (IllegalStateException e) {
             return ResponseEntity.status(403).body(Map.of("error", e.getMessage()));
         } catch (IllegalArgumentException e) {
@@ -887,13 +1097,11 @@ public class AuthController {
             }
 
             // 删除主账号及子账号
-            int deletedCount = userService.deleteUserWithChildren(req.userId());
-
-            return ResponseEntity.ok(Map.of(
-                    "ok", true,
-                    "deletedCount", deletedCount,
-                    "message", String.format("已删除%d个账号（含子账号）", deletedCount)
-            ));
+            AccountDeletionService.Outcome outcome = accountDeletionService.deleteMainAccount(req.userId(), currentUserId);
+            long deletedCount = outcome.count(AccountDeletionService.USERS);
+            return deletionResponse(outcome, String.format("已删除%d个账号（含子账号）", deletedCount));
+        } catch (TooManyRequestsException e) {
+            throw e;
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
@@ -1085,7 +1293,8 @@ public class AuthController {
             return ResponseEntity.ok(Map.of(
                     "orphanedSitesCount", stats.orphanedSitesCount,
                     "orphanedUsersCount", stats.orphanedUsersCount,
-                    "orphanedGroupsCount", stats.orphanedGroupsCount
+                    "orphanedGroupsCount", stats.orphanedGroupsCount,
+                    "computedAt", stats.computedAt
             ));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("error", "预览失败"));
@@ -1101,34 +1310,101 @@ public class AuthController {
             return ResponseEntity.status(401).body(Map.of("error", "未登录"));
         }
 
+        String currentUserId = String.valueOf(StpUtil.getLoginId());
+        if (!isGlobalAdmin(currentUserId)) {
+            return ResponseEntity.status(403).body(Map.of("error", "权限不足，只有全局管理员可以执行清理操作"));
+        }
+
         try {
-            String currentUserId = String.valueOf(StpUtil.getLoginId());
-            Optional<User> currentUserOpt = userService.getUserById(currentUserId);
+            // 清理在后台分批执行，立即返回任务信息
+            BackgroundJob job = cacheCleanupService.startCleanup(currentUserId);
+            Map<String, Object> body = new HashMap<>(job.toView());
+            body.put("ok", true);
+            body.put("async", true);
+            body.put("message", "清理已在后台开始，可通过任务ID查看进度");
+            return ResponseEntity.accepted().body(body);
+        } catch (TooManyRequestsException e) {
+            throw e;
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("error", "清理失败"));
+        }
+    }
 
-            if (currentUserOpt.isEmpty()) {
-                return ResponseEntity.status(404).body(Map.of("error", "当前用户不存在"));
-            }
+    /**
+     * 管理员 - 查看清理任务进度（速率、预计剩余时间）和持久化的断点
+     */
+    @GetMapping("/admin/cache/cleanup")
+    public ResponseEntity<?> getCleanupStatus() {
+        if (!StpUtil.isLogin()) {
+            return ResponseEntity.status(401).body(Map.of("error", "未登录"));
+        }
 
-            User currentUser = currentUserOpt.get();
+        String currentUserId = String.valueOf(StpUtil.getLoginId());
+        if (!isGlobalAdmin(currentUserId)) {
+            return ResponseEntity.status(403).body(Map.of("error", "权限不足"));
+        }
 
-            // 检查权限：仅GLOBAL_ADMIN可以执行清理
-            if (!"GLOBAL_ADMIN".equals(currentUser.role)) {
-                return ResponseEntity.status(403).body(Map.of("error", "权限不足，只有全局管理员可以执行清理操作"));
-            }
+        Map<String, Object> body = new HashMap<>();
+        body.put("job", cacheCleanupService.lastCleanupJob().map(BackgroundJob::toView).orElse(null));
+        body.put("checkpoint", cacheCleanupService.loadCheckpoint().map(CacheCleanupService.Checkpoint::toView).orElse(null));
+        return ResponseEntity.ok(body);
+    }
 
-            // 执行清理
-            CleanupResult result = cacheCleanupService.executeCleanup(currentUserId);
+    /**
+     * 管理员 - 取消正在执行的清理任务，已删除的批次不会回滚，下次执行从断点继续
+     */
+    @PostMapping("/admin/cache/cleanup/cancel")
+    public ResponseEntity<?> cancelCleanup() {
+        if (!StpUtil.isLogin()) {
+            return ResponseEntity.status(401).body(Map.of("error", "未登录"));
+        }
 
-            return ResponseEntity.ok(Map.of(
-                    "ok", true,
-                    "message", "清理完成",
-                    "deletedSitesCount", result.deletedSitesCount,
-                    "deletedUsersCount", result.deletedUsersCount,
-                    "deletedGroupsCount", result.deletedGroupsCount
-            ));
-        } catch (Exception e) {
-            return ResponseEntity.status(500).body(Map.of("error", "清理失败"));
+        String currentUserId = String.valueOf(StpUtil.getLoginId());
+        if (!isGlobalAdmin(currentUserId)) {
+            return ResponseEntity.status(403).body(Map.of("error", "权限不足"));
+        }
+
+        if (!cacheCleanupService.cancelCleanup()) {
+            return ResponseEntity.status(404).body(Map.of("error", "没有正在执行的清理任务"));
+        }
+        return ResponseEntity.ok(Map.of("ok", true, "message", "已请求取消，当前批次完成后停止"));
+    }
+
+    /**
+     * 管理员 - 立即执行一次软删除数据压缩
+     */
+    @PostMapping("/admin/compaction/run")
+    public ResponseEntity<?> runCompaction() {
+        if (!StpUtil.isLogin()) {
+            return ResponseEntity.status(401).body(Map.of("error", "未登录"));
+        }
+
+        String currentUserId = String.valueOf(StpUtil.getLoginId());
+        if (!isGlobalAdmin(currentUserId)) {
+            return ResponseEntity.status(403).body(Map.of("error", "权限不足"));
+        }
+
+        BackgroundJob job = compactionService.start(currentUserId);
+        return ResponseEntity.accepted().body(job.toView());
+    }
+
+    /**
+     * 管理员 - 查看最近一次压缩结果
+     */
+    @GetMapping("/admin/compaction")
+    public ResponseEntity<?> getCompaction() {
+        if (!StpUtil.isLogin()) {
+            return ResponseEntity.status(401).body(Map.of("error", "未登录"));
         }
+
+        String currentUserId = String.valueOf(StpUtil.getLoginId());
+        if (!isGlobalAdmin(currentUserId)) {
+            return ResponseEntity.status(403).body(Map.of("error", "权限不足"));
+        }
+
+        return compactionService.lastJob()
+                .<ResponseEntity<?>>map(job -> ResponseEntity.ok(job.toView()))
+                .orElseGet(() -> ResponseEntity.ok(Map.of("status", "NEVER_RUN")));
     }
 
     /**
@@ -1191,6 +1467,35 @@ public class AuthController {
         response.sendRedirect("/");
     }
 
+    /**
+     * 级联删除的响应：同步完成时返回删除明细，转入后台时返回 202 和任务ID
+     */
+    private static ResponseEntity<?> deletionResponse(AccountDeletionService.Outcome outcome, String message) {
+        if (outcome.isAsync()) {
+            return ResponseEntity.accepted().body(Map.of(
+                    "ok", true,
+                    "async", true,
+                    "jobId", outcome.job().getId(),
+                    "message", "数据量较大，已转入后台删除，可通过 /api/auth/jobs/" + outcome.job().getId() + " 查询进度"
+            ));
+        }
+
+        return ResponseEntity.ok(Map.of(
+                "ok", true,
+                "async", false,
+                "message", message,
+                "deletedBundlesCount", outcome.count(AccountDeletionService.BUNDLES),
+                "deletedCount", outcome.count(AccountDeletionService.USERS),
+                "report", outcome.report()
+        ));
+    }
+
+    private boolean isGlobalAdmin(String userId) {
+        return userService.getUserById(userId)
+                .map(u -> "GLOBAL_ADMIN".equals(u.role))
+                .orElse(false);
+    }
+
     private static boolean isBlank(String s) {
         return s == null || s.trim().isEmpty();
     }
@@ -6,10 +6,13 @@
 package app.controller;
 
 import app.model.CookieBundle;
+import app.service.AuditService;
 import app.service.BundleService;
 import cn.dev33.satoken.annotation.SaCheckLogin;
 import cn.dev33.satoken.stp.StpUtil;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -19,10 +22,32 @@ import java.util.Map;
 @RequestMapping("/api/bundle")
 public class BundleController {
     private final BundleService service;
+    private final AuditService auditService;
     private final ObjectMapper om = new ObjectMapper();
 
-    public BundleController(BundleService service) {
+    // 负载大小分布（按 JSON 字符数计，内容以 ASCII 为主，近似字节数）
+    private final DistributionSummary uploadPayload;
+    private final DistributionSummary writebackPayload;
+    private final DistributionSummary quickUpdatePayload;
+
+    public BundleController(BundleService service, AuditService auditService, MeterRegistry meterRegistry) {
         this.service = service;
+        this.auditService = auditService;
+        this.uploadPayload = payloadSummary(meterRegistry, "upload");
+        this.writebackPayload = payloadSummary(meterRegistry, "writeback");
+        this.quickUpdatePayload = payloadSummary(meterRegistry, "quick_update");
+    }
+
+    private static DistributionSummary payloadSummary(MeterRegistry meterRegistry, String operation) {
+        return DistributionSummary.builder("anydoor.bundle.payload.size")
+                .tag("operation", operation)
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .minimumExpectedValue(256.0)
+                .maximumExpectedValue(16.0 * 1024 * 1024)
+                .description("上传/写回的站点负载大小")
+                .register(meterRegistry);
     }
 
     public record UploadReq(
@@ -78,6 +103,7 @@ public class BundleController {
                 "cookies", req.cookies(),
                 "storage", req.storage()
         ));
+        uploadPayload.record(json.length());
 
         CookieBundle b = service.save(
                 ownerId,
@@ -91,6 +117,7 @@ public class BundleController {
                 expireDays,
                 json
         );
+        auditService.record(ownerId, AuditService.UPLOAD, AuditService.BUNDLE, b.id, true, null);
 
         return ResponseEntity.ok(Map.of(
                 "bundleId", b.id,
@@ -110,7 +137,10 @@ public class BundleController {
     public ResponseEntity<?> writeback(@RequestBody WriteReq req) throws Exception {
         String userId = String.valueOf(StpUtil.getLoginId());
         var opt = service.get(req.bundleId());
-        if (opt.isEmpty()) return ResponseEntity.status(404).body(Map.of("error", "not found"));
+        if (opt.isEmpty()) {
+            auditService.record(userId, AuditService.WRITEBACK, AuditService.BUNDLE, req.bundleId(), false, "not found");
+            return ResponseEntity.status(404).body(Map.of("error", "not found"));
+        }
 
         var b = opt.get();
 
@@ -135,9 +165,12 @@ public class BundleController {
         }
 
         if (!hasAccess) {
+            auditService.record(userId, AuditService.WRITEBACK, AuditService.BUNDLE, b.id, false, "forbidden");
             return ResponseEntity.status(403).body(Map.of("error", "forbidden"));
         }
 
+        auditService.record(userId, AuditService.WRITEBACK, AuditService.BUNDLE, b.id, true, null);
+        writebackPayload.record(b.payload.length());
         Map<?, ?> data = om.readValue(b.payload, Map.class);
         return ResponseEntity.ok(data);
     }
@@ -396,6 +429,7 @@ public class BundleController {
         try {
             String ownerId = String.valueOf(StpUtil.getLoginId());
             app.model.BundleShare share = service.createShare(bundleId, ownerId);
+            auditService.record(ownerId, AuditService.SHARE_CREATE, AuditService.SHARE, share.id, true, null);
             
             // 构建分享链接
             String shareLink = "https://example.com/share?token=" + share.shareToken;
@@ -445,6 +479,7 @@ public class BundleController {
         try {
             String ownerId = String.valueOf(StpUtil.getLoginId());
             service.revokeShare(shareId, ownerId);
+            auditService.record(ownerId, AuditService.SHARE_REVOKE, AuditService.SHARE, shareId, true, null);
             
             return ResponseEntity.ok(Map.of(
                 "ok", true,
@@ -466,6 +501,7 @@ public class BundleController {
         try {
             String ownerId = String.valueOf(StpUtil.getLoginId());
             service.deleteShare(shareId, ownerId);
+            auditService.record(ownerId, AuditService.SHARE_DELETE, AuditService.SHARE, shareId, true, null);
             
             return ResponseEntity.ok(Map.of(
                 "ok", true,
@@ -489,6 +525,9 @@ public class BundleController {
         try {
             String userId = String.valueOf(StpUtil.getLoginId());
             boolean success = service.importByToken(userId, req.shareToken());
+            // 资源ID记录令牌前缀，避免完整令牌进入日志
+            auditService.record(userId, AuditService.SHARE_IMPORT, AuditService.SHARE,
+                    tokenPrefix(req.shareToken()), success, success ? null : "import rejected");
             
             if (success) {
                 return ResponseEntity.ok(Map.of(
@@ -623,6 +662,7 @@ public class BundleController {
                 "cookies", req.cookies(),
                 "storage", req.storage()
         ));
+        quickUpdatePayload.record(json.length());
 
         try {
             // 默认延长 7 天 (null)
@@ -642,4 +682,11 @@ public class BundleController {
             return ResponseEntity.status(500).body(Map.of("error", "更新异常：" + e.getMessage()));
         }
     }
+
+    private static String tokenPrefix(String shareToken) {
+        if (shareToken == null) {
+            return null;
+        }
+        return shareToken.length() <= 8 ? shareToken : shareToken.substring(0, 8);
+    }
 }
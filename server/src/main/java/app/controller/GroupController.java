@@ -7,7 +7,7 @@ import app.mapper.UserMapper;
 import app.model.CookieBundle;
 import app.model.User;
 import app.model.UserGroup;
-import app.model.UserGroupRelation;
+import app.model.dto.KeysetCursor;
 import app.service.BundleService;
 import app.service.GroupService;
 import cn.dev33.satoken.stp.StpUtil;
@@ -24,6 +24,8 @@ import static app.model.table.UserTableDef.USER;
 @RestController
 @RequestMapping("/api/group")
 public class GroupController {
+    private static final int DEFAULT_MEMBER_PAGE_SIZE = 100;
+    private static final int MAX_MEMBER_PAGE_SIZE = 500;
 
     private final GroupService groupService;
     private final UserMapper userMapper;
@@ -44,6 +46,9 @@ public class GroupController {
     public record UpdateGroupReq(String groupName, String description) {
     }
 
+    public record BulkMemberReq(List<String> userIds, List<String> usernames, String roleInGroup) {
+    }
+
     /**
      * 创建组
      */
@@ -135,6 +140,69 @@ public class GroupController {
         }
     }
 
+    /**
+     * 批量添加成员到组
+     */
+    @PostMapping("/{groupId}/members/batch")
+    public ResponseEntity<?> addMembers(
+            @PathVariable String groupId,
+            @RequestBody BulkMemberReq req
+    ) {
+        if (!StpUtil.isLogin()) {
+            return ResponseEntity.status(401).body(Map.of("error", "未登录"));
+        }
+
+        if (req == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "用户列表不能为空"));
+        }
+
+        try {
+            String operatorId = String.valueOf(StpUtil.getLoginId());
+            String roleInGroup = req.roleInGroup() != null ? req.roleInGroup() : "MEMBER";
+
+            List<GroupService.BulkMemberResult> results =
+                    groupService.addMembers(groupId, req.userIds(), req.usernames(), roleInGroup, operatorId);
+            long added = results.stream().filter(r -> "ADDED".equals(r.status())).count();
+
+            return ResponseEntity.ok(Map.of("ok", true, "added", added, "results", results));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(403).body(Map.of("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * 批量从组中移除成员
+     */
+    @PostMapping("/{groupId}/members/batch-remove")
+    public ResponseEntity<?> removeMembers(
+            @PathVariable String groupId,
+            @RequestBody BulkMemberReq req
+    ) {
+        if (!StpUtil.isLogin()) {
+            return ResponseEntity.status(401).body(Map.of("error", "未登录"));
+        }
+
+        if (req == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "用户列表不能为空"));
+        }
+
+        try {
+            String operatorId = String.valueOf(StpUtil.getLoginId());
+
+            List<GroupService.BulkMemberResult> results =
+                    groupService.removeMembers(groupId, req.userIds(), req.usernames(), operatorId);
+            long removed = results.stream().filter(r -> "REMOVED".equals(r.status())).count();
+
+            return ResponseEntity.ok(Map.of("ok", true, "removed", removed, "results", results));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(403).body(Map.of("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     /**
      * 查询我的所有组
      */
@@ -197,10 +265,15 @@ public class GroupController {
     }
 
     /**
-     * 查询组内成员列表
+     * 查询组内成员列表（键集分页）
      */
     @GetMapping("/{groupId}/members")
-    public ResponseEntity<?> getGroupMembers(@PathVariable String groupId) {
+    public ResponseEntity<?> getGroupMembers(
+            @PathVariable String groupId,
+            @RequestParam(required = false) String role,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit
+    ) {
         if (!StpUtil.isLogin()) {
             return ResponseEntity.status(401).body(Map.of("error", "未登录"));
         }
@@ -216,22 +289,42 @@ public class GroupController {
             return ResponseEntity.status(403).body(Map.of("error", "无权查看此组成员"));
         }
 
-        List<UserGroupRelation> relations = groupService.getGroupMembers(groupId);
+        GroupService.MemberPage page;
+        try {
+            // 始终分页，未传 limit 时取默认页大小，客户端按 nextCursor 继续读取
+            int pageSize = limit == null ? DEFAULT_MEMBER_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_MEMBER_PAGE_SIZE));
+            page = groupService.listMembers(groupId, role, KeysetCursor.parse(cursor), pageSize);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        // 一次 IN 查询取出本页成员的用户名
+        Map<String, String> usernames = new HashMap<>();
+        if (!page.members().isEmpty()) {
+            List<String> memberIds = page.members().stream().map(r -> r.userId).toList();
+            userMapper.selectListByQuery(
+                    com.mybatisflex.core.query.QueryWrapper.create()
+                            .select(USER.ID, USER.USERNAME)
+                            .where(USER.ID.in(memberIds))
+            ).forEach(u -> usernames.put(u.id, u.username));
+        }
 
-        // 关联查询用户信息
-        List<Map<String, Object>> members = relations.stream()
+        List<Map<String, Object>> members = page.members().stream()
                 .map(r -> {
-                    User user = userMapper.selectOneById(r.userId);
                     Map<String, Object> memberMap = new HashMap<>();
                     memberMap.put("userId", r.userId);
-                    memberMap.put("username", user != null ? user.username : "未知用户");
+                    memberMap.put("username", usernames.getOrDefault(r.userId, "未知用户"));
                     memberMap.put("roleInGroup", r.roleInGroup);
                     memberMap.put("joinedAt", r.joinedAt);
                     return memberMap;
                 })
                 .toList();
 
-        return ResponseEntity.ok(Map.of("members", members));
+        Map<String, Object> respMap = new HashMap<>();
+        respMap.put("members", members);
+        respMap.put("nextCursor", page.nextCursor());
+        respMap.put("hasMore", page.nextCursor() != null);
+        return ResponseEntity.ok(respMap);
     }
 
     /**
@@ -34,4 +34,7 @@ public class UserBundleReference {
 
     @Column("share_id")
     public String shareId;  // 分享记录ID（通过哪个分享导入的）
+
+    @Column("hidden_at")
+    public Long hiddenAt;  // 设置为不可见的时间，用于过期清理
 }
@@ -0,0 +1,35 @@
+package app.model.dto;
+
+/**
+ * 键集分页游标
+ * 由排序时间戳和行ID组成，对外编码为 "{timestamp}_{id}"
+ */
+public record KeysetCursor(long timestamp, String id) {
+
+    public String encode() {
+        return timestamp + "_" + id;
+    }
+
+    /**
+     * 解析游标字符串
+     *
+     * @param cursor 游标字符串（可为空）
+     * @return 游标对象，空字符串返回 null
+     */
+    public static KeysetCursor parse(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+
+        int sep = cursor.indexOf('_');
+        if (sep <= 0 || sep == cursor.length() - 1) {
+            throw new IllegalArgumentException("分页游标无效");
+        }
+
+        try {
+            return new KeysetCursor(Long.parseLong(cursor.substring(0, sep)), cursor.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("分页游标无效");
+        }
+    }
+}
@@ -7,6 +7,8 @@ public class OrphanedDataStats {
     public int orphanedSitesCount;
     public int orphanedUsersCount;
     public int orphanedGroupsCount;
+    // 计数时间
+    public long computedAt;
 
     public OrphanedDataStats() {
     }
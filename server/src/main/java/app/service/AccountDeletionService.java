@@ -0,0 +1,209 @@
+// 账号级联删除
+// 按依赖顺序删除账号的引用、分享、站点、组关系和自建的组，最后删除账号本身
+// 审计日志保留，但其中的 user_id 置空（分区表没有外键，由这里代替原 ON DELETE SET NULL）
+// 每条语句只删除一批（LIMIT），以自动提交的短事务执行，不会因为大账号长时间持锁
+// 数据量超过阈值时转为后台任务执行，可通过任务ID查询进度
+
+package app.service;
+
+import app.mapper.UserMapper;
+import app.model.User;
+import cn.dev33.satoken.stp.StpUtil;
+import com.mybatisflex.core.query.QueryWrapper;
+import com.mybatisflex.core.row.Db;
+import com.mybatisflex.core.row.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static app.model.table.UserTableDef.USER;
+
+@Service
+public class AccountDeletionService {
+    private static final Logger log = LoggerFactory.getLogger(AccountDeletionService.class);
+
+    public static final String JOB_TYPE = "ACCOUNT_DELETION";
+
+    // 报告中的计数项
+    public static final String REFERENCES = "references";
+    public static final String CROSS_GROUP_SHARES = "crossGroupShares";
+    public static final String SHARES = "shares";
+    public static final String BUNDLES = "bundles";
+    public static final String BUNDLES_DETACHED = "bundlesDetached";
+    public static final String RELATIONS = "relations";
+    public static final String GROUPS = "groups";
+    public static final String USERS = "users";
+    public static final String AUDIT_ANONYMIZED = "auditAnonymized";
+
+    private final UserMapper userMapper;
+    private final BackgroundJobService jobService;
+    private final int chunkSize;
+    private final long asyncThreshold;
+
+    public AccountDeletionService(
+            UserMapper userMapper,
+            BackgroundJobService jobService,
+            @Value("${anydoor.account-deletion.chunk-size:500}") int chunkSize,
+            @Value("${anydoor.account-deletion.async-threshold:2000}") long asyncThreshold
+    ) {
+        this.userMapper = userMapper;
+        this.jobService = jobService;
+        this.chunkSize = chunkSize;
+        this.asyncThreshold = asyncThreshold;
+    }
+
+    /**
+     * 级联删除子账号
+     *
+     * @param subAccountId 子账号ID
+     * @param operatorId   操作者ID（必须是父账号）
+     * @return 删除结果
+     */
+    public Outcome deleteSubAccount(String subAccountId, String operatorId) {
+        User subAccount = userMapper.selectOneById(subAccountId);
+        if (subAccount == null) {
+            throw new IllegalArgumentException("子账号不存在");
+        }
+
+        if (!operatorId.equals(subAccount.parentUserId)) {
+            throw new IllegalStateException("权限不足，只有主账号可以删除其子账号");
+        }
+
+        return execute(List.of(subAccountId), operatorId);
+    }
+
+    /**
+     * 级联删除主账号及其全部子账号
+     *
+     * @param userId     主账号ID
+     * @param operatorId 操作者ID
+     * @return 删除结果
+     */
+    public Outcome deleteMainAccount(String userId, String operatorId) {
+        User mainUser = userMapper.selectOneById(userId);
+        if (mainUser == null) {
+            throw new IllegalArgumentException("用户不存在");
+        }
+
+        // 先删子账号，最后删主账号
+        List<String> userIds = new ArrayList<>(userMapper.selectObjectListByQueryAs(
+                QueryWrapper.create().select(USER.ID).where(USER.PARENT_USER_ID.eq(userId)),
+                String.class
+        ));
+        userIds.add(userId);
+
+        return execute(userIds, operatorId);
+    }
+
+    /**
+     * 删除结果：同步执行时 report 为删除明细；转入后台时 job 为任务对象
+     */
+    public record Outcome(Map<String, Long> report, BackgroundJob job) {
+        public boolean isAsync() {
+            return job != null;
+        }
+
+        public long count(String counter) {
+            return report == null ? 0 : report.getOrDefault(counter, 0L);
+        }
+    }
+
+    private Outcome execute(List<String> userIds, String operatorId) {
+        long estimated = estimateRows(userIds);
+
+        if (estimated > asyncThreshold) {
+            BackgroundJob job = jobService.submit(JOB_TYPE, operatorId, j -> purge(userIds, j));
+            log.info("Account deletion scheduled: jobId={}, users={}, estimatedRows={}, operatorId={}",
+                    job.getId(), userIds.size(), estimated, operatorId);
+            return new Outcome(null, job);
+        }
+
+        BackgroundJob job = jobService.inline(JOB_TYPE, operatorId);
+        purge(userIds, job);
+        return new Outcome(job.counters(), null);
+    }
+
+    /**
+     * 粗略估计需要删除的行数：站点数 + 分享数 + 用户数
+     */
+    private long estimateRows(List<String> userIds) {
+        String placeholders = String.join(", ", Collections.nCopies(userIds.size(), "?"));
+        Object[] args = userIds.toArray();
+        long bundles = Db.selectCount("SELECT COUNT(*) FROM cookie_bundle WHERE owner_id IN (" + placeholders + ")", args);
+        long shares = Db.selectCount("SELECT COUNT(*) FROM bundle_share WHERE owner_id IN (" + placeholders + ")", args);
+        return bundles + shares + userIds.size();
+    }
+
+    /**
+     * 逐个账号删除（子账号在前），每个账号内按依赖顺序分批删除
+     * <p>
+     * 删除一旦开始就执行到底，不响应取消，避免留下删了一半的账号
+     *
+     * @return 始终为 true
+     */
+    private boolean purge(List<String> userIds, BackgroundJob job) {
+        for (String userId : userIds) {
+            purgeOne(userId, job);
+        }
+        log.info("Accounts deleted with cascade: users={}, report={}", userIds, job.counters());
+        return true;
+    }
+
+    private void purgeOne(String userId, BackgroundJob job) {
+        // 1. 他人对该账号站点的引用、跨组分享、分享链接
+        drain(job, REFERENCES,
+                "DELETE FROM user_bundle_reference WHERE bundle_id IN (SELECT id FROM cookie_bundle WHERE owner_id = ?) LIMIT ?",
+                userId);
+        drain(job, CROSS_GROUP_SHARES,
+                "DELETE FROM cross_group_share WHERE bundle_id IN (SELECT id FROM cookie_bundle WHERE owner_id = ?) LIMIT ?",
+                userId);
+        drain(job, SHARES,
+                "DELETE FROM bundle_share WHERE bundle_id IN (SELECT id FROM cookie_bundle WHERE owner_id = ?) LIMIT ?",
+                userId);
+
+        // 2. 该账号自己持有的引用、发起的跨组分享和分享链接
+        drain(job, REFERENCES, "DELETE FROM user_bundle_reference WHERE user_id = ? LIMIT ?", userId);
+        drain(job, CROSS_GROUP_SHARES, "DELETE FROM cross_group_share WHERE shared_by = ? LIMIT ?", userId);
+        drain(job, SHARES, "DELETE FROM bundle_share WHERE owner_id = ? LIMIT ?", userId);
+
+        // 3. 站点
+        drain(job, BUNDLES, "DELETE FROM cookie_bundle WHERE owner_id = ? LIMIT ?", userId);
+
+        // 4. 该账号创建的组：先清空成员、跨组分享，解除站点归属，再删除组
+        List<Row> ownedGroups = Db.selectListBySql("SELECT id FROM user_group WHERE owner_id = ?", userId);
+        for (Row group : ownedGroups) {
+            String groupId = group.getString("id");
+            drain(job, RELATIONS, "DELETE FROM user_group_relation WHERE group_id = ? LIMIT ?", groupId);
+            drain(job, CROSS_GROUP_SHARES, "DELETE FROM cross_group_share WHERE target_group_id = ? LIMIT ?", groupId);
+            drain(job, BUNDLES_DETACHED, "UPDATE cookie_bundle SET group_id = NULL WHERE group_id = ? LIMIT ?", groupId);
+            job.add(GROUPS, Db.updateBySql("DELETE FROM user_group WHERE id = ?", groupId));
+        }
+
+        // 5. 该账号在其他组中的成员关系
+        drain(job, RELATIONS, "DELETE FROM user_group_relation WHERE user_id = ? LIMIT ?", userId);
+
+        // 6. 审计日志中的用户ID置空，记录本身保留
+        drain(job, AUDIT_ANONYMIZED, "UPDATE audit_log SET user_id = NULL WHERE user_id = ? LIMIT ?", userId);
+
+        // 7. 账号本身，并使其登录态失效
+        job.add(USERS, userMapper.deleteById(userId));
+        StpUtil.logout(userId);
+    }
+
+    /**
+     * 反复执行带 LIMIT 的语句，直到一批不满为止
+     */
+    private void drain(BackgroundJob job, String counter, String sql, String key) {
+        int affected;
+        do {
+            affected = Db.updateBySql(sql, key, chunkSize);
+            job.add(counter, affected);
+        } while (affected >= chunkSize);
+    }
+}
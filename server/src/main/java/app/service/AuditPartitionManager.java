@@ -0,0 +1,288 @@
+// 审计日志分区与保留期
+// audit_log 按 created_at 每月一个 RANGE 分区（pYYYYMM，上界为下月第一天零点），另有 MAXVALUE 兜底分区 p_future
+// 启动时和每天定时从 p_future 拆出当前月及之后若干个月的分区；超过保留期的分区整块 DROP，不产生大量 undo 和复制延迟
+// p_future 中已有数据时不自动拆分：REORGANIZE 会复制这些数据并在期间阻塞 audit_log 上的写入，审计写线程会停顿、缓冲区满后丢弃事件；
+// 此时只记录告警，由运维在低峰期按 DATABASE_README.md 中的 DDL 手动拆分
+// 表未分区时（旧库未升级或引擎不支持）退回为按 created_at 分批 DELETE，每批一条带 LIMIT 的自动提交语句，只在定时任务中执行
+
+package app.service;
+
+import com.mybatisflex.core.row.Db;
+import com.mybatisflex.core.row.Row;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+@Component
+@ConditionalOnProperty(name = "anydoor.audit.sink", havingValue = "db", matchIfMissing = true)
+public class AuditPartitionManager {
+    private static final Logger log = LoggerFactory.getLogger(AuditPartitionManager.class);
+
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+
+    /**
+     * 保留期处理方式：auto 按表是否已分区自动选择；partition 只维护分区；delete 始终分批删除
+     */
+    public enum Mode {
+        AUTO, PARTITION, DELETE
+    }
+
+    /**
+     * 分区信息，MAXVALUE 分区的上界记为 Long.MAX_VALUE；rows 为 information_schema 的估算行数
+     */
+    record Partition(String name, long bound, long rows) {
+        boolean isMaxValue() {
+            return bound == Long.MAX_VALUE;
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Mode mode;
+    private final long retentionMillis;
+    private final int monthsAhead;
+    private final int deleteBatchSize;
+    private final long deletePauseMillis;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private final AtomicInteger partitionCount = new AtomicInteger();
+
+    public AuditPartitionManager(
+            MeterRegistry meterRegistry,
+            @Value("${anydoor.audit.retention.enabled:true}") boolean enabled,
+            @Value("${anydoor.audit.retention.mode:auto}") String mode,
+            @Value("${anydoor.audit.retention.days:180}") long retentionDays,
+            @Value("${anydoor.audit.retention.months-ahead:3}") int monthsAhead,
+            @Value("${anydoor.audit.retention.delete-batch-size:5000}") int deleteBatchSize,
+            @Value("${anydoor.audit.retention.delete-pause-ms:100}") long deletePauseMillis
+    ) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        this.retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+        this.monthsAhead = Math.max(1, monthsAhead);
+        this.deleteBatchSize = deleteBatchSize;
+        this.deletePauseMillis = deletePauseMillis;
+
+        Gauge.builder("anydoor.audit.partitions", partitionCount, AtomicInteger::get)
+                .description("audit_log 当前分区数（未分区为 0）")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 启动后立即补齐分区，保证当月写入不会落到兜底分区（p_future 为空、只改元数据时）
+     * 分批删除可能持续很久，不在启动线程上执行，留给定时任务
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        maintainQuietly(true);
+    }
+
+    /**
+     * 定时维护（默认每天凌晨 3:45）
+     */
+    @Scheduled(cron = "${anydoor.audit.retention.cron:0 45 3 * * *}")
+    public void scheduledMaintain() {
+        maintainQuietly(false);
+    }
+
+    private void maintainQuietly(boolean startup) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            maintain(startup);
+        } catch (Exception e) {
+            log.warn("Audit log partition maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 预建分区并清理超过保留期的数据
+     *
+     * @param startup 是否为启动时执行；启动时不做分批删除
+     */
+    public synchronized void maintain(boolean startup) {
+        List<Partition> partitions = loadPartitions();
+        boolean partitioned = !partitions.isEmpty();
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+
+        if (mode == Mode.DELETE || (mode == Mode.AUTO && !partitioned)) {
+            if (retentionMillis > 0 && !startup) {
+                deleteExpired(cutoff);
+            }
+            partitionCount.set(partitions.size());
+            return;
+        }
+
+        if (!partitioned) {
+            log.warn("Audit log retention mode is PARTITION but audit_log is not partitioned; skipping");
+            return;
+        }
+
+        ensurePartitions(partitions);
+        if (retentionMillis > 0) {
+            dropExpired(partitions, cutoff);
+        }
+        partitionCount.set(loadPartitions().size());
+    }
+
+    /**
+     * 读取 audit_log 的分区列表；未分区时返回空列表
+     */
+    List<Partition> loadPartitions() {
+        List<Row> rows = Db.selectListBySql(
+                "SELECT partition_name AS name, partition_description AS bound, table_rows AS table_rows "
+                        + "FROM information_schema.partitions "
+                        + "WHERE table_schema = DATABASE() AND table_name = 'audit_log' AND partition_name IS NOT NULL "
+                        + "ORDER BY partition_ordinal_position");
+
+        List<Partition> partitions = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            String bound = row.getString("bound");
+            Long tableRows = row.getLong("table_rows");
+            partitions.add(new Partition(
+                    row.getString("name"),
+                    "MAXVALUE".equalsIgnoreCase(bound) ? Long.MAX_VALUE : Long.parseLong(bound.trim()),
+                    tableRows == null ? 0 : tableRows));
+        }
+        return partitions;
+    }
+
+    /**
+     * 补齐从当月起 months-ahead 个月的分区
+     * <p>
+     * 有 MAXVALUE 分区时从它拆出新分区，否则直接追加。只在 MAXVALUE 分区为空（拆分只改元数据）时执行，
+     * 其中已有数据时拆分会复制数据并阻塞写入，跳过并提示手动处理。
+     */
+    private void ensurePartitions(List<Partition> partitions) {
+        long maxBound = Long.MIN_VALUE;
+        Partition maxValue = null;
+        for (Partition p : partitions) {
+            if (p.isMaxValue()) {
+                maxValue = p;
+            } else {
+                maxBound = Math.max(maxBound, p.bound());
+            }
+        }
+
+        if (maxValue != null) {
+            Long oldest = oldestIn(maxValue);
+            if (oldest != null) {
+                log.warn("Audit log partition {} holds rows since {}; not splitting it automatically because "
+                                + "REORGANIZE copies the rows and blocks audit writes. Split it off-peak with the DDL in "
+                                + "DATABASE_README.md (starting from partition {})",
+                        maxValue.name(), oldest, PARTITION_NAME.format(monthOf(oldest)));
+                return;
+            }
+        }
+
+        ZonedDateTime currentMonth = monthOf(System.currentTimeMillis());
+        List<String> definitions = new ArrayList<>();
+        ZonedDateTime lastMonth = currentMonth.plusMonths(monthsAhead);
+        for (ZonedDateTime month = currentMonth; !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+            long bound = month.plusMonths(1).toInstant().toEpochMilli();
+            if (bound > maxBound) {
+                definitions.add("PARTITION " + PARTITION_NAME.format(month) + " VALUES LESS THAN (" + bound + ")");
+            }
+        }
+        if (definitions.isEmpty()) {
+            return;
+        }
+
+        String ddl = maxValue != null
+                ? "ALTER TABLE audit_log REORGANIZE PARTITION " + maxValue.name() + " INTO ("
+                + String.join(", ", definitions) + ", PARTITION " + maxValue.name() + " VALUES LESS THAN MAXVALUE)"
+                : "ALTER TABLE audit_log ADD PARTITION (" + String.join(", ", definitions) + ")";
+        Db.updateBySql(ddl);
+        log.info("Audit log partitions created: count={}, from={}", definitions.size(), PARTITION_NAME.format(currentMonth));
+    }
+
+    /**
+     * MAXVALUE 分区中最早的事件时间，分区为空时返回 null（沿 idx_audit_created 只读一行）
+     */
+    private Long oldestIn(Partition maxValue) {
+        Row row = Db.selectOneBySql(
+                "SELECT MIN(created_at) AS oldest FROM audit_log PARTITION (" + maxValue.name() + ")");
+        return row == null ? null : row.getLong("oldest");
+    }
+
+    private ZonedDateTime monthOf(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).atZone(zone).withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+    }
+
+    /**
+     * 删除上界不晚于截止时间的分区（分区内全部数据都已超过保留期）
+     */
+    private void dropExpired(List<Partition> partitions, long cutoff) {
+        List<Partition> expired = partitions.stream()
+                .filter(p -> !p.isMaxValue() && p.bound() <= cutoff)
+                .toList();
+        if (expired.isEmpty()) {
+            return;
+        }
+
+        String names = expired.stream().map(Partition::name).collect(Collectors.joining(", "));
+        Db.updateBySql("ALTER TABLE audit_log DROP PARTITION " + names);
+
+        long rows = expired.stream().mapToLong(Partition::rows).sum();
+        meterRegistry.counter("anydoor.audit.retention.purged", "mode", "partition").increment(rows);
+        log.info("Audit log partitions dropped: partitions=[{}], estimatedRows={}, cutoff={}", names, rows, cutoff);
+    }
+
+    /**
+     * 未分区时的兜底：沿 idx_audit_created 分批删除，直到某批不足 batch-size
+     */
+    private void deleteExpired(long cutoff) {
+        long rows = 0;
+        while (true) {
+            int deleted = Db.updateBySql(
+                    "DELETE FROM audit_log WHERE created_at < ? ORDER BY created_at LIMIT ?",
+                    cutoff, deleteBatchSize);
+            rows += deleted;
+            if (deleted < deleteBatchSize) {
+                break;
+            }
+            if (!pause()) {
+                break;
+            }
+        }
+
+        if (rows > 0) {
+            meterRegistry.counter("anydoor.audit.retention.purged", "mode", "delete").increment(rows);
+            log.info("Audit log rows deleted: rows={}, cutoff={}", rows, cutoff);
+        }
+    }
+
+    private boolean pause() {
+        if (deletePauseMillis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(deletePauseMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
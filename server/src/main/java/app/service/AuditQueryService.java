@@ -0,0 +1,203 @@
+// 审计日志查询
+// 按用户、操作、资源和时间筛选，按 (created_at, id) 倒序键集分页，每种筛选组合都有以 created_at, id 结尾的复合索引
+// 查询必须指定时间范围且跨度不超过上限，避免全表扫描
+// 导出在内部按同样的键集分块读取，逐条交给调用方写出，不会把整个结果集放进内存
+// anydoor.audit.sink=file 时改为扫描本地分段文件：按写入顺序返回，游标记录上一页最后一条事件，下一页从它之后继续
+
+package app.service;
+
+import app.mapper.AuditLogMapper;
+import app.model.AuditLog;
+import app.model.dto.KeysetCursor;
+import com.mybatisflex.core.query.QueryWrapper;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static app.model.table.AuditLogTableDef.AUDIT_LOG;
+
+@Service
+public class AuditQueryService {
+    // 导出时每次读取的行数
+    private static final int EXPORT_CHUNK_SIZE = 1000;
+
+    private final AuditLogMapper auditLogMapper;
+    // 仅 anydoor.audit.sink=file 时存在
+    private final SegmentFileAuditSink segmentFileAuditSink;
+    private final long maxWindowMillis;
+
+    public AuditQueryService(
+            AuditLogMapper auditLogMapper,
+            ObjectProvider<SegmentFileAuditSink> segmentFileAuditSink,
+            @Value("${anydoor.audit.query.max-window-days:31}") long maxWindowDays
+    ) {
+        this.auditLogMapper = auditLogMapper;
+        this.segmentFileAuditSink = segmentFileAuditSink.getIfAvailable();
+        this.maxWindowMillis = TimeUnit.DAYS.toMillis(maxWindowDays);
+    }
+
+    /**
+     * 查询条件，from/to 为必填的时间范围 [from, to)
+     */
+    public record AuditFilter(String userId, String action, String resourceType, String resourceId,
+                              Long from, Long to) {
+    }
+
+    /**
+     * 分页结果，nextCursor 为空表示没有更多数据
+     */
+    public record AuditPage(List<AuditLog> events, String nextCursor) {
+    }
+
+    /**
+     * 按时间倒序查询一页
+     *
+     * @param filter 查询条件
+     * @param cursor 上一页返回的游标（首页为 null）
+     * @param limit  每页数量
+     * @return 当前页及下一页游标
+     */
+    public AuditPage page(AuditFilter filter, KeysetCursor cursor, int limit) {
+        validate(filter);
+
+        // 多取一条用于判断是否还有下一页
+        List<AuditLog> rows = segmentFileAuditSink != null
+                ? pageFromSegments(filter, cursor, limit + 1)
+                : auditLogMapper.selectListByQuery(query(filter, cursor).limit(limit + 1));
+
+        String nextCursor = null;
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            AuditLog last = rows.get(limit - 1);
+            nextCursor = new KeysetCursor(last.createdAt, last.id).encode();
+        }
+        return new AuditPage(rows, nextCursor);
+    }
+
+    /**
+     * 按时间倒序逐条输出满足条件的全部事件
+     *
+     * @param filter 查询条件
+     * @param sink   每条事件的处理逻辑
+     * @return 输出条数
+     */
+    public long export(AuditFilter filter, Consumer<AuditLog> sink) {
+        validate(filter);
+
+        if (segmentFileAuditSink != null) {
+            long[] total = {0};
+            scanSegments(filter, event -> {
+                if (matches(filter, event)) {
+                    sink.accept(event);
+                    total[0]++;
+                }
+                return true;
+            });
+            return total[0];
+        }
+
+        long total = 0;
+        KeysetCursor cursor = null;
+        while (true) {
+            List<AuditLog> chunk = auditLogMapper.selectListByQuery(query(filter, cursor).limit(EXPORT_CHUNK_SIZE));
+            for (AuditLog event : chunk) {
+                sink.accept(event);
+            }
+            total += chunk.size();
+            if (chunk.size() < EXPORT_CHUNK_SIZE) {
+                return total;
+            }
+            AuditLog last = chunk.get(chunk.size() - 1);
+            cursor = new KeysetCursor(last.createdAt, last.id);
+        }
+    }
+
+    /**
+     * 校验时间范围，未指定或跨度过大时拒绝
+     */
+    public void validate(AuditFilter filter) {
+        if (filter.from() == null || filter.to() == null) {
+            throw new IllegalArgumentException("必须指定时间范围 from 和 to");
+        }
+        if (filter.to() <= filter.from()) {
+            throw new IllegalArgumentException("结束时间必须大于起始时间");
+        }
+        if (filter.to() - filter.from() > maxWindowMillis) {
+            throw new IllegalArgumentException("时间范围不能超过 " + TimeUnit.MILLISECONDS.toDays(maxWindowMillis) + " 天");
+        }
+    }
+
+    /**
+     * 从分段文件读取一页：跳过游标指向的事件及其之前的事件，再按条件收集
+     * 游标指向的事件已随分段过期删除时返回空页
+     */
+    private List<AuditLog> pageFromSegments(AuditFilter filter, KeysetCursor cursor, int limit) {
+        List<AuditLog> rows = new ArrayList<>();
+        boolean[] resumed = {cursor == null};
+        scanSegments(filter, event -> {
+            if (!resumed[0]) {
+                resumed[0] = event.createdAt == cursor.timestamp() && cursor.id().equals(event.id);
+                return true;
+            }
+            if (matches(filter, event)) {
+                rows.add(event);
+            }
+            return rows.size() < limit;
+        });
+        return rows;
+    }
+
+    private void scanSegments(AuditFilter filter, Predicate<AuditLog> visitor) {
+        try {
+            segmentFileAuditSink.forEach(filter.from(), filter.to(), visitor);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取审计文件失败", e);
+        }
+    }
+
+    private static boolean matches(AuditFilter filter, AuditLog event) {
+        return (isBlank(filter.userId()) || filter.userId().equals(event.userId))
+                && (isBlank(filter.action()) || filter.action().equals(event.action))
+                && (isBlank(filter.resourceType()) || filter.resourceType().equals(event.resourceType))
+                && (isBlank(filter.resourceId()) || filter.resourceId().equals(event.resourceId));
+    }
+
+    private QueryWrapper query(AuditFilter filter, KeysetCursor cursor) {
+        QueryWrapper query = QueryWrapper.create()
+                .where(AUDIT_LOG.CREATED_AT.ge(filter.from()))
+                .and(AUDIT_LOG.CREATED_AT.lt(filter.to()));
+
+        if (!isBlank(filter.userId())) {
+            query.and(AUDIT_LOG.USER_ID.eq(filter.userId()));
+        }
+        if (!isBlank(filter.action())) {
+            query.and(AUDIT_LOG.ACTION.eq(filter.action()));
+        }
+        if (!isBlank(filter.resourceType())) {
+            query.and(AUDIT_LOG.RESOURCE_TYPE.eq(filter.resourceType()));
+        }
+        if (!isBlank(filter.resourceId())) {
+            query.and(AUDIT_LOG.RESOURCE_ID.eq(filter.resourceId()));
+        }
+
+        if (cursor != null) {
+            query.and(AUDIT_LOG.CREATED_AT.lt(cursor.timestamp())
+                    .or(AUDIT_LOG.CREATED_AT.eq(cursor.timestamp())
+                            .and(AUDIT_LOG.ID.lt(cursor.id()))));
+        }
+
+        return query.orderBy(AUDIT_LOG.CREATED_AT.desc(), AUDIT_LOG.ID.desc());
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,275 @@
+// 审计日志
+// 请求线程只把事件放入有界无锁环形缓冲区，由单个后台线程批量写入（默认 audit_log 表，可切换为本地分段文件），
+// 不在热点请求上增加数据库往返
+// 缓冲区满时按配置的溢出策略处理：drop 直接丢弃；sample 在缓冲区超过阈值后按比例采样；block 短暂等待空位，超时再丢弃
+// 停机时先把缓冲区中剩余的事件写完
+
+package app.service;
+
+import app.model.AuditLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+@Service
+public class AuditService {
+    private static final Logger log = LoggerFactory.getLogger(AuditService.class);
+
+    // 操作类型
+    public static final String UPLOAD = "UPLOAD";
+    public static final String WRITEBACK = "WRITEBACK";
+    public static final String LOGIN = "LOGIN";
+    public static final String SHARE_CREATE = "SHARE_CREATE";
+    public static final String SHARE_REVOKE = "SHARE_REVOKE";
+    public static final String SHARE_DELETE = "SHARE_DELETE";
+    public static final String SHARE_IMPORT = "SHARE_IMPORT";
+
+    // 资源类型
+    public static final String BUNDLE = "BUNDLE";
+    public static final String SHARE = "SHARE";
+    public static final String USER = "USER";
+
+    public static final String SUCCESS = "SUCCESS";
+    public static final String FAILURE = "FAILURE";
+
+    private static final int MAX_USER_AGENT_LENGTH = 512;
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    /**
+     * 缓冲区满时的处理方式
+     */
+    public enum OverflowPolicy {
+        DROP, SAMPLE, BLOCK
+    }
+
+    private final AuditSink sink;
+    private final MpscRingBuffer<AuditLog> buffer;
+    private final boolean enabled;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final long idleParkNanos;
+    private final int sampleThreshold;
+    private final int sampleRate;
+    private final long blockTimeoutNanos;
+    private final long drainTimeoutMillis;
+
+    private final Counter written;
+    private final Counter droppedFull;
+    private final Counter droppedSampled;
+    private final Counter droppedTimeout;
+    private final Counter droppedWriteFailed;
+    private final Timer batchTimer;
+
+    private volatile boolean running;
+    private Thread consumer;
+
+    public AuditService(
+            AuditSink sink,
+            MeterRegistry meterRegistry,
+            @Value("${anydoor.audit.enabled:true}") boolean enabled,
+            @Value("${anydoor.audit.buffer-size:8192}") int bufferSize,
+            @Value("${anydoor.audit.overflow-policy:drop}") String overflowPolicy,
+            @Value("${anydoor.audit.batch-size:500}") int batchSize,
+            @Value("${anydoor.audit.flush-interval-ms:200}") long flushIntervalMillis,
+            @Value("${anydoor.audit.sample-threshold:0.75}") double sampleThreshold,
+            @Value("${anydoor.audit.sample-rate:10}") int sampleRate,
+            @Value("${anydoor.audit.block-timeout-ms:50}") long blockTimeoutMillis,
+            @Value("${anydoor.audit.drain-timeout-ms:5000}") long drainTimeoutMillis
+    ) {
+        this.sink = sink;
+        this.buffer = new MpscRingBuffer<>(bufferSize);
+        this.enabled = enabled;
+        this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase(Locale.ROOT));
+        this.batchSize = batchSize;
+        this.idleParkNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.sampleThreshold = (int) (buffer.capacity() * sampleThreshold);
+        this.sampleRate = Math.max(1, sampleRate);
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.drainTimeoutMillis = drainTimeoutMillis;
+
+        this.written = Counter.builder("anydoor.audit.written")
+                .description("已写入的审计事件数")
+                .register(meterRegistry);
+        this.droppedFull = dropCounter(meterRegistry, "full");
+        this.droppedSampled = dropCounter(meterRegistry, "sampled");
+        this.droppedTimeout = dropCounter(meterRegistry, "block_timeout");
+        this.droppedWriteFailed = dropCounter(meterRegistry, "write_failed");
+        this.batchTimer = Timer.builder("anydoor.audit.batch")
+                .description("每批审计事件写入耗时")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.audit.pending", buffer, MpscRingBuffer::size)
+                .description("缓冲区中等待写入的事件数")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.audit.lag", this, AuditService::lagMillis)
+                .description("最早一条未写入事件的等待时长（毫秒）")
+                .register(meterRegistry);
+    }
+
+    private static Counter dropCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("anydoor.audit.dropped")
+                .tag("reason", reason)
+                .description("被丢弃的审计事件数")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        consumer = new Thread(this::consume, "audit-writer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * 停止接收新事件并等待剩余事件写完
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (consumer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(drainTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (buffer.size() > 0) {
+            log.warn("Audit writer stopped with {} events still buffered", buffer.size());
+        }
+    }
+
+    /**
+     * 记录一条审计事件；IP 和 User-Agent 取自当前请求
+     *
+     * @param userId       操作用户ID（未知时为 null）
+     * @param action       操作类型
+     * @param resourceType 资源类型
+     * @param resourceId   资源ID
+     * @param success      是否成功
+     * @param errorMessage 失败原因
+     */
+    public void record(String userId, String action, String resourceType, String resourceId,
+                       boolean success, String errorMessage) {
+        if (!enabled || !running) {
+            return;
+        }
+
+        AuditLog event = new AuditLog();
+        event.id = UUID.randomUUID().toString();
+        event.userId = userId;
+        event.action = action;
+        event.resourceType = resourceType;
+        event.resourceId = resourceId;
+        event.result = success ? SUCCESS : FAILURE;
+        event.errorMessage = truncate(errorMessage, MAX_ERROR_LENGTH);
+        event.createdAt = System.currentTimeMillis();
+
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes servlet) {
+            HttpServletRequest request = servlet.getRequest();
+            event.ipAddress = request.getRemoteAddr();
+            event.userAgent = truncate(request.getHeader("User-Agent"), MAX_USER_AGENT_LENGTH);
+        }
+
+        publish(event);
+    }
+
+    /**
+     * 按溢出策略放入缓冲区
+     */
+    void publish(AuditLog event) {
+        switch (overflowPolicy) {
+            case DROP -> {
+                if (!buffer.offer(event)) {
+                    droppedFull.increment();
+                }
+            }
+            case SAMPLE -> {
+                if (buffer.size() >= sampleThreshold
+                        && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+                    droppedSampled.increment();
+                    return;
+                }
+                if (!buffer.offer(event)) {
+                    droppedFull.increment();
+                }
+            }
+            case BLOCK -> {
+                long deadline = System.nanoTime() + blockTimeoutNanos;
+                while (!buffer.offer(event)) {
+                    if (System.nanoTime() >= deadline || Thread.currentThread().isInterrupted()) {
+                        droppedTimeout.increment();
+                        return;
+                    }
+                    LockSupport.unpark(consumer);
+                    LockSupport.parkNanos(100_000);
+                }
+            }
+        }
+    }
+
+    private void consume() {
+        List<AuditLog> batch = new ArrayList<>(batchSize);
+        while (true) {
+            buffer.drainTo(batch, batchSize);
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+                continue;
+            }
+            if (!running) {
+                // 停机：缓冲区已空
+                return;
+            }
+            LockSupport.parkNanos(idleParkNanos);
+        }
+    }
+
+    private void write(List<AuditLog> batch) {
+        long start = System.nanoTime();
+        int ok;
+        try {
+            ok = sink.write(batch);
+        } catch (Exception e) {
+            log.warn("Audit sink failed, dropping {} events: {}", batch.size(), e.getMessage());
+            ok = 0;
+        } finally {
+            batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        written.increment(ok);
+        droppedWriteFailed.increment(batch.size() - ok);
+    }
+
+    private double lagMillis() {
+        AuditLog oldest = buffer.peek();
+        return oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.createdAt);
+    }
+
+    private static String truncate(String value, int max) {
+        return value == null || value.length() <= max ? value : value.substring(0, max);
+    }
+}
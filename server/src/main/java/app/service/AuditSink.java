@@ -0,0 +1,19 @@
+package app.service;
+
+import app.model.AuditLog;
+
+import java.util.List;
+
+/**
+ * 审计事件的持久化目标，由审计写入线程单线程调用
+ */
+public interface AuditSink {
+
+    /**
+     * 写入一批事件
+     *
+     * @param batch 事件列表，调用返回后会被复用
+     * @return 成功写入的条数，其余视为丢弃
+     */
+    int write(List<AuditLog> batch);
+}
@@ -0,0 +1,179 @@
+// 后台任务
+// 记录任务状态和各项计数，供提交者轮询进度
+// 支持协作式取消：任务在批次之间检查取消标记后自行退出
+// 设置了总量的任务会根据已处理量估算处理速率和剩余时间
+
+package app.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class BackgroundJob {
+    public enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    private final String id;
+    private final String type;
+    private final String ownerId;
+    private final long createdAt;
+
+    private volatile Status status = Status.PENDING;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile String error;
+    private volatile boolean cancelRequested;
+
+    // 预计总量和已处理量，用于计算速率和剩余时间；总量为 0 表示未知
+    private volatile long total;
+    private volatile long processed;
+    // 断点描述，如"当前阶段/最后处理的ID"
+    private volatile String checkpoint;
+
+    // 按首次出现的顺序保存计数，便于报告阅读
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    BackgroundJob(String id, String type, String ownerId) {
+        this.id = id;
+        this.type = type;
+        this.ownerId = ownerId;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    /**
+     * 请求取消，任务在下一个批次边界退出
+     */
+    public void requestCancel() {
+        cancelRequested = true;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /**
+     * 设置预计总量
+     */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * 累加已处理量
+     */
+    public synchronized void advance(long delta) {
+        processed += delta;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setCheckpoint(String checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * 累加计数
+     *
+     * @param counter 计数项
+     * @param delta   增量
+     */
+    public synchronized void add(String counter, long delta) {
+        counters.merge(counter, delta, Long::sum);
+    }
+
+    /**
+     * @return 当前计数的快照
+     */
+    public synchronized Map<String, Long> counters() {
+        return new LinkedHashMap<>(counters);
+    }
+
+    void markRunning() {
+        startedAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    void markSucceeded() {
+        finishedAt = System.currentTimeMillis();
+        status = Status.SUCCEEDED;
+    }
+
+    void markCancelled() {
+        finishedAt = System.currentTimeMillis();
+        status = Status.CANCELLED;
+    }
+
+    void markFailed(String message) {
+        error = message;
+        finishedAt = System.currentTimeMillis();
+        status = Status.FAILED;
+    }
+
+    /**
+     * @return 用于接口返回的视图
+     */
+    public Map<String, Object> toView() {
+        Map<String, Object> view = new HashMap<>();
+        view.put("jobId", id);
+        view.put("type", type);
+        view.put("status", status.name());
+        view.put("createdAt", createdAt);
+        view.put("startedAt", startedAt > 0 ? startedAt : null);
+        view.put("finishedAt", finishedAt > 0 ? finishedAt : null);
+        view.put("error", error);
+        view.put("progress", counters());
+        if (total > 0 || processed > 0) {
+            putRate(view);
+        }
+        view.put("checkpoint", checkpoint);
+        view.put("cancelRequested", cancelRequested);
+        return view;
+    }
+
+    /**
+     * 写入已处理量、总量、每秒处理量和预计剩余秒数
+     */
+    private void putRate(Map<String, Object> view) {
+        long done = processed;
+        view.put("processed", done);
+        view.put("total", total > 0 ? total : null);
+
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        long elapsed = startedAt > 0 ? end - startedAt : 0;
+        double rate = elapsed > 0 ? done * 1000.0 / elapsed : 0;
+        view.put("ratePerSecond", Math.round(rate * 10) / 10.0);
+
+        Long etaSeconds = null;
+        if (status == Status.RUNNING && total > 0 && rate > 0) {
+            etaSeconds = (long) Math.ceil(Math.max(0, total - done) / rate);
+        }
+        view.put("etaSeconds", etaSeconds);
+    }
+}
@@ -0,0 +1,149 @@
+// 后台任务服务
+// 耗时较长的维护操作（如大账号的级联删除）提交到这里异步执行，接口立即返回任务ID供轮询
+// 已结束的任务在内存中保留一段时间后清除
+
+package app.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+public class BackgroundJobService {
+    private static final Logger log = LoggerFactory.getLogger(BackgroundJobService.class);
+
+    private final Map<String, BackgroundJob> jobs = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+    private final long retentionMillis;
+
+    public BackgroundJobService(
+            @Value("${anydoor.jobs.threads:2}") int threads,
+            @Value("${anydoor.jobs.queue-capacity:32}") int queueCapacity,
+            @Value("${anydoor.jobs.retention-minutes:60}") long retentionMinutes
+    ) {
+        this.retentionMillis = TimeUnit.MINUTES.toMillis(retentionMinutes);
+
+        AtomicInteger threadSeq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "background-job-" + threadSeq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * 任务内容，通过传入的任务对象汇报进度
+     */
+    @FunctionalInterface
+    public interface Work {
+        /**
+         * @return 全部完成返回 true；响应取消等原因提前退出返回 false，任务记为已取消
+         */
+        boolean run(BackgroundJob job);
+    }
+
+    /**
+     * 创建一个不进入队列的任务对象，用于在当前线程直接执行、但复用相同的进度记录
+     */
+    public BackgroundJob inline(String type, String ownerId) {
+        return new BackgroundJob(UUID.randomUUID().toString(), type, ownerId);
+    }
+
+    /**
+     * 提交后台任务
+     *
+     * @param type    任务类型
+     * @param ownerId 提交者ID
+     * @param work    任务内容
+     * @return 任务对象
+     * @throws TooManyRequestsException 队列已满
+     */
+    public BackgroundJob submit(String type, String ownerId, Work work) {
+        BackgroundJob job = inline(type, ownerId);
+        jobs.put(job.getId(), job);
+
+        try {
+            executor.execute(() -> run(job, work));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw new TooManyRequestsException("后台任务过多，请稍后重试", 30);
+        }
+
+        log.info("Background job submitted: jobId={}, type={}, ownerId={}", job.getId(), type, ownerId);
+        return job;
+    }
+
+    /**
+     * 查询任务
+     */
+    public Optional<BackgroundJob> get(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    /**
+     * 请求取消任务
+     *
+     * @return 任务存在且尚未结束时返回 true
+     */
+    public boolean cancel(String jobId) {
+        BackgroundJob job = jobs.get(jobId);
+        if (job == null || job.isFinished()) {
+            return false;
+        }
+        job.requestCancel();
+        log.info("Background job cancel requested: jobId={}, type={}", jobId, job.getType());
+        return true;
+    }
+
+    /**
+     * 清除超过保留时间的已结束任务
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void evictFinished() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt() < cutoff);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(BackgroundJob job, Work work) {
+        job.markRunning();
+        try {
+            // 取消请求晚于最后一个批次时任务实际已经做完，以任务自己的返回值为准
+            if (!work.run(job)) {
+                job.markCancelled();
+                log.info("Background job cancelled: jobId={}, type={}, progress={}", job.getId(), job.getType(), job.counters());
+                return;
+            }
+            job.markSucceeded();
+            log.info("Background job finished: jobId={}, type={}, progress={}", job.getId(), job.getType(), job.counters());
+        } catch (Exception e) {
+            job.markFailed(e.getMessage());
+            log.error("Background job failed: jobId={}, type={}, progress={}", job.getId(), job.getType(), job.counters(), e);
+        }
+    }
+}
@@ -11,7 +11,12 @@ import app.model.BundleShare;
 import app.model.CookieBundle;
 import app.model.UserBundleReference;
 import app.model.UserGroup;
+import com.mybatisflex.core.row.Db;
+import com.mybatisflex.core.row.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
@@ -23,12 +28,19 @@ import static app.model.table.UserBundleReferenceTableDef.USER_BUNDLE_REFERENCE;
 
 @Service
 public class BundleService {
+    private static final Logger log = LoggerFactory.getLogger(BundleService.class);
+
+    // 批量更新/删除引用记录时每批的行数
+    private static final int REFERENCE_UPDATE_CHUNK = 1000;
+
     private final CookieBundleMapper mapper;
     private final UserBundleReferenceMapper referenceMapper;
     private final CryptoService crypto;
     private final GroupService groupService;
     private final BundleShareMapper bundleShareMapper;
     private final UserMapper userMapper;
+    private final ShareTokenCache shareTokenCache;
+    private final ShareUsageCounter shareUsageCounter;
 
     public BundleService(
             CryptoService crypto,
@@ -36,7 +48,9 @@ public class BundleService {
             UserBundleReferenceMapper referenceMapper,
             GroupService groupService,
             BundleShareMapper bundleShareMapper,
-            UserMapper userMapper
+            UserMapper userMapper,
+            ShareTokenCache shareTokenCache,
+            ShareUsageCounter shareUsageCounter
     ) {
         this.crypto = crypto;
         this.mapper = mapper;
@@ -44,6 +58,8 @@ public class BundleService {
         this.groupService = groupService;
         this.bundleShareMapper = bundleShareMapper;
         this.userMapper = userMapper;
+        this.shareTokenCache = shareTokenCache;
+        this.shareUsageCounter = shareUsageCounter;
     }
 
     /**
@@ -120,6 +136,13 @@ public class BundleService {
         return Optional.of(b);
     }
 
+    /**
+     * 未过期条件，与 get() 一致：expire_at = 0 表示永不过期
+     */
+    static com.mybatisflex.core.query.QueryCondition notExpired(long now) {
+        return COOKIE_BUNDLE.EXPIRE_AT.gt(now).or(COOKIE_BUNDLE.EXPIRE_AT.eq(0));
+    }
+
     /**
      * 查询用户可见的 Bundle 列表
      *
@@ -135,7 +158,7 @@ public class BundleService {
         var myBundles = mapper.selectListByQuery(
                 com.mybatisflex.core.query.QueryWrapper.create()
                         .where(COOKIE_BUNDLE.OWNER_ID.eq(userId))
-                        .and(COOKIE_BUNDLE.EXPIRE_AT.gt(now))
+                        .and(notExpired(now))
         );
 
         for (var bundle : myBundles) {
@@ -166,7 +189,7 @@ public class BundleService {
             var importedBundles = mapper.selectListByQuery(
                     com.mybatisflex.core.query.QueryWrapper.create()
                             .where(COOKIE_BUNDLE.ID.in(bundleIds))
-                            .and(COOKIE_BUNDLE.EXPIRE_AT.gt(now))
+                            .and(notExpired(now))
             );
 
             for (var bundle : importedBundles) {
@@ -190,7 +213,7 @@ public class BundleService {
         var publicBundles = mapper.selectListByQuery(
                 com.mybatisflex.core.query.QueryWrapper.create()
                         .where(COOKIE_BUNDLE.SHARE_MODE.eq("PUBLIC"))
-                        .and(COOKIE_BUNDLE.EXPIRE_AT.gt(now))
+                        .and(notExpired(now))
                         .and(COOKIE_BUNDLE.OWNER_ID.ne(userId))
         );
 
@@ -221,7 +244,7 @@ public class BundleService {
                     com.mybatisflex.core.query.QueryWrapper.create()
                             .where(COOKIE_BUNDLE.SHARE_MODE.eq("GROUP_ONLY"))
                             .and(COOKIE_BUNDLE.GROUP_ID.in(userGroupIds))
-                            .and(COOKIE_BUNDLE.EXPIRE_AT.gt(now))
+                            .and(notExpired(now))
                             .and(COOKIE_BUNDLE.OWNER_ID.ne(userId)) // 排除自己
             );
 
@@ -361,7 +384,6 @@ public class BundleService {
      * @param userId   用户ID
      * @return 是否成功
      */
-    @Transactional
     public boolean deleteBundle(String bundleId, String userId) {
         // 1. 查询Bundle
         CookieBundle bundle = mapper.selectOneById(bundleId);
@@ -374,41 +396,20 @@ public class BundleService {
             throw new IllegalArgumentException("无权删除该Bundle");
         }
 
-        // 3. 查询活跃的分享记录
-        java.util.List<app.model.BundleShare> activeShares = bundleShareMapper.selectListByQuery(
-            com.mybatisflex.core.query.QueryWrapper.create()
-                .where(app.model.table.BundleShareTableDef.BUNDLE_SHARE.BUNDLE_ID.eq(bundleId))
-                .and(app.model.table.BundleShareTableDef.BUNDLE_SHARE.STATUS.eq("ACTIVE"))
-        );
-        
-        // 4. 更新所有分享记录状态为 DELETED
-        for (app.model.BundleShare share : activeShares) {
-            share.status = "DELETED";
-            bundleShareMapper.update(share);
-        }
-        
-        // 5. 隐藏所有被分享人的引用记录
-        java.util.List<UserBundleReference> references = referenceMapper.selectListByQuery(
-            com.mybatisflex.core.query.QueryWrapper.create()
-                .where(app.model.table.UserBundleReferenceTableDef.USER_BUNDLE_REFERENCE.BUNDLE_ID.eq(bundleId))
-                .and(app.model.table.UserBundleReferenceTableDef.USER_BUNDLE_REFERENCE.REFERENCE_TYPE.eq("IMPORTED"))
-        );
-        
-        for (UserBundleReference ref : references) {
-            ref.isVisible = false;
-            referenceMapper.update(ref);
-        }
+        // 3. 先让所有活跃分享失效，阻止新的导入
+        int activeShares = Db.updateBySql(
+                "UPDATE bundle_share SET status = 'DELETED' WHERE bundle_id = ? AND status = 'ACTIVE'", bundleId);
+        shareTokenCache.invalidateBundle(bundleId);
+
+        // 4. 分批删除引用记录（先删被分享人的，用于统计受影响用户数）
+        int affectedUsers = updateInChunks(
+                "DELETE FROM user_bundle_reference WHERE bundle_id = ? AND reference_type = 'IMPORTED' LIMIT ?", bundleId);
+        updateInChunks("DELETE FROM user_bundle_reference WHERE bundle_id = ? LIMIT ?", bundleId);
 
-        // 6. 删除Bundle
+        // 5. 删除Bundle（分享记录随外键级联删除）
         int deleted = mapper.deleteById(bundleId);
 
-        // 7. 删除所有引用记录
-        referenceMapper.deleteByQuery(
-            com.mybatisflex.core.query.QueryWrapper.create()
-                .where(app.model.table.UserBundleReferenceTableDef.USER_BUNDLE_REFERENCE.BUNDLE_ID.eq(bundleId))
-        );
-        
-        System.out.println("Bundle deleted: bundleId=" + bundleId + ", activeShares=" + activeShares.size() + ", affectedUsers=" + references.size());
+        log.info("Bundle deleted: bundleId={}, activeShares={}, affectedUsers={}", bundleId, activeShares, affectedUsers);
 
         return deleted > 0;
     }
@@ -435,9 +436,10 @@ public class BundleService {
 
         // 2. 将引用记录设置为不可见（软删除）
         ref.isVisible = false;
+        ref.hiddenAt = System.currentTimeMillis();
         referenceMapper.update(ref);
         
-        System.out.println("Reference closed: bundleId=" + bundleId + ", userId=" + userId);
+        log.info("Reference closed: bundleId={}, userId={}", bundleId, userId);
 
         return true;
     }
@@ -469,7 +471,7 @@ public class BundleService {
         return mapper.selectListByQuery(
                 com.mybatisflex.core.query.QueryWrapper.create()
                         .where(COOKIE_BUNDLE.OWNER_ID.eq(userId))
-                        .and(COOKIE_BUNDLE.EXPIRE_AT.gt(now))
+                        .and(notExpired(now))
                         .orderBy(COOKIE_BUNDLE.CREATED_AT.desc())
         );
     }
@@ -600,7 +602,7 @@ public class BundleService {
         return mapper.selectListByQuery(
                 com.mybatisflex.core.query.QueryWrapper.create()
                         .where(COOKIE_BUNDLE.GROUP_ID.eq(groupId))
-                        .and(COOKIE_BUNDLE.EXPIRE_AT.gt(now))
+                        .and(notExpired(now))
                         .orderBy(COOKIE_BUNDLE.CREATED_AT.desc())
         );
     }
@@ -616,7 +618,7 @@ public class BundleService {
         return (int) mapper.selectCountByQuery(
                 com.mybatisflex.core.query.QueryWrapper.create()
                         .where(COOKIE_BUNDLE.GROUP_ID.eq(groupId))
-                        .and(COOKIE_BUNDLE.EXPIRE_AT.gt(now))
+                        .and(notExpired(now))
         );
     }
 
@@ -696,23 +698,21 @@ public class BundleService {
                         .orderBy(BUNDLE_SHARE.CREATED_AT.desc())
         );
 
-        // 为每个分享记录计算实际用户数量
+        // 一次分组查询统计每个分享的实际用户数量（去重，只统计可见的）
+        java.util.Map<String, Long> userCounts = new java.util.HashMap<>();
+        if (!shares.isEmpty()) {
+            for (Row row : Db.selectListBySql(
+                    "SELECT share_id, COUNT(DISTINCT user_id) AS user_count FROM user_bundle_reference "
+                            + "WHERE bundle_id = ? AND share_id IS NOT NULL AND reference_type = 'IMPORTED' AND is_visible = 1 "
+                            + "GROUP BY share_id",
+                    bundleId)) {
+                userCounts.put(row.getString("share_id"), row.getLong("user_count"));
+            }
+        }
+
         java.util.List<java.util.Map<String, Object>> result = new java.util.ArrayList<>();
         for (BundleShare share : shares) {
-            // 查询通过该分享导入的用户数量（去重，只统计可见的）
-            java.util.List<UserBundleReference> references = referenceMapper.selectListByQuery(
-                    com.mybatisflex.core.query.QueryWrapper.create()
-                            .where(USER_BUNDLE_REFERENCE.BUNDLE_ID.eq(bundleId))
-                            .and(USER_BUNDLE_REFERENCE.REFERENCE_TYPE.eq("IMPORTED"))
-                            .and(USER_BUNDLE_REFERENCE.SHARE_ID.eq(share.id))
-                            .and(USER_BUNDLE_REFERENCE.IS_VISIBLE.eq(true))
-            );
-
-            // 去重统计用户数量
-            long actualUserCount = references.stream()
-                    .map(ref -> ref.userId)
-                    .distinct()
-                    .count();
+            long actualUserCount = userCounts.getOrDefault(share.id, 0L);
 
             // 构建返回数据
             java.util.Map<String, Object> shareData = new java.util.HashMap<>();
@@ -721,7 +721,7 @@ public class BundleService {
             shareData.put("ownerId", share.ownerId);
             shareData.put("shareToken", share.shareToken);
             shareData.put("status", share.status);
-            shareData.put("usedCount", share.usedCount); // 保留原始导入次数
+            shareData.put("usedCount", (share.usedCount != null ? share.usedCount : 0) + shareUsageCounter.pendingCount(share.id)); // 保留原始导入次数（含尚未写回的部分）
             shareData.put("actualUserCount", actualUserCount); // 实际用户数量
             shareData.put("createdAt", share.createdAt);
             shareData.put("lastUsedAt", share.lastUsedAt);
@@ -739,7 +739,6 @@ public class BundleService {
      * @param shareId 分享记录ID
      * @param ownerId 所有者ID
      */
-    @Transactional
     public void revokeShare(String shareId, String ownerId) {
         // 1. 查询分享记录
         BundleShare share = bundleShareMapper.selectOneById(shareId);
@@ -752,25 +751,18 @@ public class BundleService {
             throw new IllegalArgumentException("无权撤销该分享");
         }
 
-        // 3. 更新分享状态为 REVOKED
-        share.status = "REVOKED";
-        share.revokedAt = System.currentTimeMillis();
-        bundleShareMapper.update(share);
+        // 3. 更新分享状态为 REVOKED（单条语句，只改状态列）
+        Db.updateBySql("UPDATE bundle_share SET status = 'REVOKED', revoked_at = ? WHERE id = ?",
+                System.currentTimeMillis(), shareId);
+        shareTokenCache.invalidate(share.shareToken);
 
-        // 4. 隐藏所有通过该分享导入的引用记录
-        java.util.List<UserBundleReference> references = referenceMapper.selectListByQuery(
-                com.mybatisflex.core.query.QueryWrapper.create()
-                        .where(USER_BUNDLE_REFERENCE.BUNDLE_ID.eq(share.bundleId))
-                        .and(USER_BUNDLE_REFERENCE.REFERENCE_TYPE.eq("IMPORTED"))
-                        .and(USER_BUNDLE_REFERENCE.SHARE_ID.eq(shareId))
-        );
+        // 4. 分批隐藏所有通过该分享导入的引用记录
+        int affectedUsers = updateInChunks(
+                "UPDATE user_bundle_reference SET is_visible = 0, hidden_at = ? "
+                        + "WHERE bundle_id = ? AND share_id = ? AND reference_type = 'IMPORTED' AND is_visible = 1 LIMIT ?",
+                System.currentTimeMillis(), share.bundleId, shareId);
 
-        for (UserBundleReference ref : references) {
-            ref.isVisible = false;
-            referenceMapper.update(ref);
-        }
-
-        System.out.println("Share revoked: shareId=" + shareId + ", bundleId=" + share.bundleId + ", affectedUsers=" + references.size());
+        log.info("Share revoked: shareId={}, bundleId={}, affectedUsers={}", shareId, share.bundleId, affectedUsers);
     }
 
     /**
@@ -780,19 +772,19 @@ public class BundleService {
      * @param shareToken 分享令牌
      * @return 是否成功
      */
-    @Transactional
+    @Transactional(isolation = Isolation.READ_COMMITTED)
     public boolean importByToken(String userId, String shareToken) {
-        // 1. 查询分享记录
-        BundleShare share = bundleShareMapper.selectOneByQuery(
+        // 1. 查询分享记录（走令牌缓存，返回的对象不可修改）
+        BundleShare share = shareTokenCache.lookup(shareToken, token -> bundleShareMapper.selectOneByQuery(
                 com.mybatisflex.core.query.QueryWrapper.create()
-                        .where(BUNDLE_SHARE.SHARE_TOKEN.eq(shareToken))
-        );
+                        .where(BUNDLE_SHARE.SHARE_TOKEN.eq(token))
+        ));
 
         if (share == null) {
             throw new IllegalArgumentException("分享令牌无效");
         }
 
-        // 2. 验证分享状态
+        // 2. 验证分享状态（缓存可能滞后，写入引用后还会以数据库为准再确认一次）
         if (!"ACTIVE".equals(share.status)) {
             throw new IllegalArgumentException("分享已失效");
         }
@@ -833,10 +825,15 @@ public class BundleService {
             referenceMapper.insert(ref);
         }
 
-        // 6. 更新分享使用统计
-        share.usedCount++;
-        share.lastUsedAt = System.currentTimeMillis();
-        bundleShareMapper.update(share);
+        // 6. 写入引用后再用普通读确认分享仍有效（不加锁，不与撤销和使用次数写回争用）
+        // READ COMMITTED 下这里读到的是最新已提交状态：撤销若已提交则回滚本次导入；
+        // 否则撤销的状态更新晚于此处，其后按 share_id 批量隐藏引用时会等本事务提交并把新引用一并隐藏
+        if (Db.selectCount("SELECT COUNT(*) FROM bundle_share WHERE id = ? AND status = 'ACTIVE'", share.id) == 0) {
+            throw new IllegalArgumentException("分享已失效");
+        }
+
+        // 7. 更新分享使用统计（内存累加，定时批量写回）
+        shareUsageCounter.record(share.id, System.currentTimeMillis());
 
         return true;
     }
@@ -906,30 +903,18 @@ public class BundleService {
             throw new IllegalArgumentException("无权限管理该分享");
         }
 
-        // 3. 查询该用户通过此分享导入的引用记录
-        java.util.List<UserBundleReference> references = referenceMapper.selectListByQuery(
-                com.mybatisflex.core.query.QueryWrapper.create()
-                        .where(USER_BUNDLE_REFERENCE.USER_ID.eq(userId))
-                        .and(USER_BUNDLE_REFERENCE.BUNDLE_ID.eq(share.bundleId))
-                        .and(USER_BUNDLE_REFERENCE.SHARE_ID.eq(shareId))
-                        .and(USER_BUNDLE_REFERENCE.REFERENCE_TYPE.eq("IMPORTED"))
-        );
+        // 3. 将该用户通过此分享导入的引用记录设置为不可见（匹配行数为 0 说明未导入过）
+        int matched = Db.updateBySql(
+                "UPDATE user_bundle_reference SET is_visible = 0, hidden_at = ? "
+                        + "WHERE user_id = ? AND bundle_id = ? AND share_id = ? AND reference_type = 'IMPORTED'",
+                System.currentTimeMillis(), userId, share.bundleId, shareId);
 
-        if (references.isEmpty()) {
+        if (matched == 0) {
             throw new IllegalArgumentException("该用户未通过此分享导入站点");
         }
 
-        // 4. 将引用记录设置为不可见
-        for (UserBundleReference ref : references) {
-            ref.isVisible = false;
-            referenceMapper.update(ref);
-        }
-
-        // 5. 更新分享使用统计（减少使用次数）
-        if (share.usedCount > 0) {
-            share.usedCount--;
-            bundleShareMapper.update(share);
-        }
+        // 4. 更新分享使用统计（减少使用次数）
+        Db.updateBySql("UPDATE bundle_share SET used_count = used_count - 1 WHERE id = ? AND used_count > 0", shareId);
     }
 
     /**
@@ -938,7 +923,6 @@ public class BundleService {
      * @param shareId 分享记录ID
      * @param ownerId 所有者ID
      */
-    @Transactional
     public void deleteShare(String shareId, String ownerId) {
         // 1. 查询分享记录
         BundleShare share = bundleShareMapper.selectOneById(shareId);
@@ -951,23 +935,43 @@ public class BundleService {
             throw new IllegalArgumentException("无权限删除该分享");
         }
 
-        // 3. 删除所有通过该分享导入的引用记录（可选：也可以只设置为不可见）
-        java.util.List<UserBundleReference> references = referenceMapper.selectListByQuery(
-                com.mybatisflex.core.query.QueryWrapper.create()
-                        .where(USER_BUNDLE_REFERENCE.BUNDLE_ID.eq(share.bundleId))
-                        .and(USER_BUNDLE_REFERENCE.REFERENCE_TYPE.eq("IMPORTED"))
-                        .and(USER_BUNDLE_REFERENCE.SHARE_ID.eq(shareId))
-        );
+        // 3. 先让分享失效，阻止新的导入
+        Db.updateBySql("UPDATE bundle_share SET status = 'DELETED' WHERE id = ?", shareId);
+        shareTokenCache.invalidate(share.shareToken);
 
-        for (UserBundleReference ref : references) {
-            ref.isVisible = false;
-            referenceMapper.update(ref);
-        }
+        // 4. 分批隐藏通过该分享导入的引用记录，并解除与分享记录的关联
+        updateInChunks(
+                "UPDATE user_bundle_reference SET is_visible = 0, hidden_at = ? "
+                        + "WHERE bundle_id = ? AND share_id = ? AND reference_type = 'IMPORTED' AND is_visible = 1 LIMIT ?",
+                System.currentTimeMillis(), share.bundleId, shareId);
+        updateInChunks("UPDATE user_bundle_reference SET share_id = NULL WHERE share_id = ? LIMIT ?", shareId);
 
-        // 4. 彻底删除分享记录
+        // 5. 彻底删除分享记录
         bundleShareMapper.deleteById(shareId);
     }
 
+    /**
+     * 分批执行带 LIMIT 的更新/删除语句，直到一批不满为止
+     * <p>
+     * 每批自动提交，大量引用记录不会在一个事务里长时间持锁。
+     *
+     * @param sql  以 LIMIT ? 结尾的语句
+     * @param args 除 LIMIT 以外的参数
+     * @return 总影响行数
+     */
+    private int updateInChunks(String sql, Object... args) {
+        Object[] chunkArgs = java.util.Arrays.copyOf(args, args.length + 1);
+        chunkArgs[args.length] = REFERENCE_UPDATE_CHUNK;
+
+        int total = 0;
+        int affected;
+        do {
+            affected = Db.updateBySql(sql, chunkArgs);
+            total += affected;
+        } while (affected >= REFERENCE_UPDATE_CHUNK);
+        return total;
+    }
+
     /**
      * 根据 Host 查找用户的所有 Bundle
      *
@@ -981,7 +985,7 @@ public class BundleService {
                 com.mybatisflex.core.query.QueryWrapper.create()
                         .where(COOKIE_BUNDLE.OWNER_ID.eq(userId))
                         .and(COOKIE_BUNDLE.HOST.eq(host))
-                        .and(COOKIE_BUNDLE.EXPIRE_AT.gt(now))
+                        .and(notExpired(now))
                         .orderBy(COOKIE_BUNDLE.UPDATED_AT.desc())
         );
     }
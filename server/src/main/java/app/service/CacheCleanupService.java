@@ -3,176 +3,424 @@ package app.service;
 import app.mapper.CookieBundleMapper;
 import app.mapper.UserGroupMapper;
 import app.mapper.UserMapper;
-import app.model.CookieBundle;
-import app.model.User;
-import app.model.UserGroup;
-import app.model.dto.CleanupResult;
 import app.model.dto.OrphanedDataStats;
+import com.mybatisflex.core.row.Db;
+import com.mybatisflex.core.row.Row;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 缓存清理服务
  * 用于识别和删除系统中的孤立数据
+ * 孤立数据通过 NOT EXISTS 反连接识别，只取主键并按主键分批，不会把整表（含站点数据）读入内存
+ * 清理作为后台任务执行：每批删除后自动提交并把断点写入 maintenance_checkpoint，可随时取消，
+ * 中断后再次执行会从断点继续，扫到末尾后再从头补扫到断点，保证每次执行都覆盖完整一轮
+ * 预览只做 COUNT(*) 计数，结果缓存一小段时间并在后台刷新
  */
 @Service
 public class CacheCleanupService {
     private static final Logger log = LoggerFactory.getLogger(CacheCleanupService.class);
 
+    public static final String JOB_TYPE = "CACHE_CLEANUP";
+
+    // 断点状态
+    private static final String STATE_RUNNING = "RUNNING";
+    private static final String STATE_CANCELLED = "CANCELLED";
+    private static final String STATE_FAILED = "FAILED";
+    private static final String STATE_DONE = "DONE";
+
+    // 任务报告中的计数项
+    private static final Map<OrphanType, String> COUNTERS = new EnumMap<>(Map.of(
+            OrphanType.SITES, "deletedSites",
+            OrphanType.USERS, "deletedUsers",
+            OrphanType.GROUPS, "deletedGroups"
+    ));
+
     private final CookieBundleMapper cookieBundleMapper;
     private final UserMapper userMapper;
     private final UserGroupMapper userGroupMapper;
+    private final BackgroundJobService jobService;
+    private final int batchSize;
+    private final long pauseMillis;
+
+    private final long previewTtlMillis;
+    private final long previewActiveMillis;
+
+    // 最近一次清理任务
+    private final AtomicReference<BackgroundJob> currentJob = new AtomicReference<>();
+    // 预览计数缓存及最近一次查看预览的时间
+    private final AtomicReference<OrphanedDataStats> previewCache = new AtomicReference<>();
+    private volatile long lastPreviewRequestAt;
 
     public CacheCleanupService(
             CookieBundleMapper cookieBundleMapper,
             UserMapper userMapper,
-            UserGroupMapper userGroupMapper
+            UserGroupMapper userGroupMapper,
+            BackgroundJobService jobService,
+            @Value("${anydoor.cleanup.batch-size:500}") int batchSize,
+            @Value("${anydoor.cleanup.pause-ms:100}") long pauseMillis,
+            @Value("${anydoor.cleanup.preview-ttl-seconds:60}") long previewTtlSeconds,
+            @Value("${anydoor.cleanup.preview-active-minutes:10}") long previewActiveMinutes
     ) {
         this.cookieBundleMapper = cookieBundleMapper;
         this.userMapper = userMapper;
         this.userGroupMapper = userGroupMapper;
+        this.jobService = jobService;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        this.previewTtlMillis = TimeUnit.SECONDS.toMillis(previewTtlSeconds);
+        this.previewActiveMillis = TimeUnit.MINUTES.toMillis(previewActiveMinutes);
     }
 
     /**
-     * 查找孤立站点
-     *
-     * @return 孤立站点ID列表
+     * 孤立数据类型及对应的反连接查询（只取主键，按主键键集分页）
      */
-    public List<String> findOrphanedSites() {
-        Set<String> orphanedSiteIds = new HashSet<>();
+    public enum OrphanType {
+        // 所有者或所属组已不存在的站点
+        SITES("cookie_bundle b", "b.id",
+                "((b.owner_id IS NOT NULL AND NOT EXISTS (SELECT 1 FROM user u WHERE u.id = b.owner_id)) "
+                        + "OR (b.group_id IS NOT NULL AND NOT EXISTS (SELECT 1 FROM user_group g WHERE g.id = b.group_id)))"),
+        // 父账号已不存在的子账号
+        USERS("user c", "c.id",
+                "c.parent_user_id IS NOT NULL AND NOT EXISTS (SELECT 1 FROM user p WHERE p.id = c.parent_user_id)"),
+        // 所有者已不存在的组
+        GROUPS("user_group g", "g.id",
+                "g.owner_id IS NOT NULL AND NOT EXISTS (SELECT 1 FROM user u WHERE u.id = g.owner_id)");
 
-        // 查找所有者不存在的站点
-        List<CookieBundle> allSites = cookieBundleMapper.selectAll();
-        List<String> allUserIds = userMapper.selectAll().stream()
-                .map(u -> u.id)
-                .collect(Collectors.toList());
+        private final String table;
+        private final String idColumn;
+        private final String condition;
 
-        for (CookieBundle site : allSites) {
-            if (site.ownerId != null && !allUserIds.contains(site.ownerId)) {
-                orphanedSiteIds.add(site.id);
-            }
-        }
-
-        // 查找所属组不存在的站点
-        List<String> allGroupIds = userGroupMapper.selectAll().stream()
-                .map(g -> g.id)
-                .collect(Collectors.toList());
-
-        for (CookieBundle site : allSites) {
-            if (site.groupId != null && !allGroupIds.contains(site.groupId)) {
-                orphanedSiteIds.add(site.id);
-            }
+        OrphanType(String table, String idColumn, String condition) {
+            this.table = table;
+            this.idColumn = idColumn;
+            this.condition = condition;
         }
-
-        log.info("Found {} orphaned sites", orphanedSiteIds.size());
-        return new ArrayList<>(orphanedSiteIds);
     }
 
     /**
-     * 查找孤立用户
+     * 统计孤立数据数量（不取任何行）
      *
-     * @return 孤立用户ID列表
+     * @param type 孤立数据类型
+     * @return 数量
      */
-    public List<String> findOrphanedUsers() {
-        List<User> allUsers = userMapper.selectAll();
-        Set<String> allUserIds = allUsers.stream()
-                .map(u -> u.id)
-                .collect(Collectors.toSet());
-
-        List<String> orphanedUserIds = allUsers.stream()
-                .filter(u -> u.parentUserId != null && !allUserIds.contains(u.parentUserId))
-                .map(u -> u.id)
-                .collect(Collectors.toList());
-
-        log.info("Found {} orphaned users", orphanedUserIds.size());
-        return orphanedUserIds;
+    public long countOrphans(OrphanType type) {
+        return Db.selectCount("SELECT COUNT(*) FROM " + type.table + " WHERE " + type.condition);
     }
 
     /**
-     * 查找孤立组
+     * 按主键顺序取下一批孤立数据ID
      *
-     * @return 孤立组ID列表
+     * @param type    孤立数据类型
+     * @param afterId 上一批最后一个ID（首批传空字符串）
+     * @param upToId  扫描上界（含），为 null 时扫到末尾
+     * @param limit   本批数量
+     * @return ID 列表，不足 limit 表示已到末尾
      */
-    public List<String> findOrphanedGroups() {
-        List<UserGroup> allGroups = userGroupMapper.selectAll();
-        List<String> allUserIds = userMapper.selectAll().stream()
-                .map(u -> u.id)
-                .collect(Collectors.toList());
+    public List<String> nextOrphanIds(OrphanType type, String afterId, String upToId, int limit) {
+        String upperBound = upToId == null ? "" : " AND " + type.idColumn + " <= ?";
+        String sql = "SELECT " + type.idColumn + " AS id FROM " + type.table
+                + " WHERE " + type.idColumn + " > ?" + upperBound + " AND " + type.condition
+                + " ORDER BY " + type.idColumn + " LIMIT ?";
+        List<Row> rows = upToId == null
+                ? Db.selectListBySql(sql, afterId == null ? "" : afterId, limit)
+                : Db.selectListBySql(sql, afterId == null ? "" : afterId, upToId, limit);
+        return rows.stream().map(r -> r.getString("id")).toList();
+    }
 
-        List<String> orphanedGroupIds = allGroups.stream()
-                .filter(g -> g.ownerId != null && !allUserIds.contains(g.ownerId))
-                .map(g -> g.id)
-                .collect(Collectors.toList());
+    /**
+     * 一次清理要扫描的一段：某类孤立数据中 (afterId, upToId] 的主键区间，upToId 为 null 表示到末尾
+     */
+    record Segment(OrphanType type, String afterId, String upToId) {
+    }
 
-        log.info("Found {} orphaned groups", orphanedGroupIds.size());
-        return orphanedGroupIds;
+    /**
+     * 从断点开始的完整一轮扫描
+     * <p>
+     * 先从断点扫到该类末尾，再依次扫其余各类，最后从头补扫该类到断点为止。
+     * 中断期间新出现的、主键不大于断点的孤立数据也会在本轮被清理。
+     *
+     * @param phase  断点所在阶段（全新执行时为第一类）
+     * @param lastId 断点所在阶段已处理到的最后一个ID（全新执行时为空字符串）
+     * @return 按执行顺序排列的扫描段
+     */
+    static List<Segment> scanPlan(OrphanType phase, String lastId) {
+        OrphanType[] types = OrphanType.values();
+        List<Segment> plan = new ArrayList<>(types.length + 1);
+        plan.add(new Segment(phase, lastId, null));
+        for (int i = 1; i < types.length; i++) {
+            plan.add(new Segment(types[(phase.ordinal() + i) % types.length], "", null));
+        }
+        if (!lastId.isEmpty()) {
+            plan.add(new Segment(phase, "", lastId));
+        }
+        return plan;
     }
 
     /**
      * 预览孤立数据统计
+     * <p>
+     * 返回缓存的计数；缓存为空或已超过 TTL 且后台没有在刷新时才同步计算一次。
+     * 最近有人查看预览时，后台按 TTL 定期刷新，反复打开管理页不会触发扫描。
      *
      * @return 孤立数据统计信息
      */
     public OrphanedDataStats previewOrphanedData() {
-        List<String> orphanedSites = findOrphanedSites();
-        List<String> orphanedUsers = findOrphanedUsers();
-        List<String> orphanedGroups = findOrphanedGroups();
-
-        return new OrphanedDataStats(
-                orphanedSites.size(),
-                orphanedUsers.size(),
-                orphanedGroups.size()
+        lastPreviewRequestAt = System.currentTimeMillis();
+        OrphanedDataStats cached = previewCache.get();
+        if (cached != null && lastPreviewRequestAt - cached.computedAt < previewTtlMillis) {
+            return cached;
+        }
+        return refreshPreview();
+    }
+
+    /**
+     * 后台刷新预览缓存，只在最近有人查看预览时执行
+     */
+    @Scheduled(fixedDelayString = "${anydoor.cleanup.preview-refresh-ms:60000}")
+    public void refreshPreviewInBackground() {
+        if (System.currentTimeMillis() - lastPreviewRequestAt > previewActiveMillis) {
+            return;
+        }
+        refreshPreview();
+    }
+
+    /**
+     * 重新计数并写入缓存；同一时间只有一个线程在计数
+     */
+    private synchronized OrphanedDataStats refreshPreview() {
+        OrphanedDataStats cached = previewCache.get();
+        // 等锁期间其他线程已刷新
+        if (cached != null && System.currentTimeMillis() - cached.computedAt < previewTtlMillis / 2) {
+            return cached;
+        }
+
+        OrphanedDataStats stats = new OrphanedDataStats(
+                (int) countOrphans(OrphanType.SITES),
+                (int) countOrphans(OrphanType.USERS),
+                (int) countOrphans(OrphanType.GROUPS)
         );
+        stats.computedAt = System.currentTimeMillis();
+        previewCache.set(stats);
+        return stats;
     }
 
     /**
-     * 执行清理操作
+     * 提交清理任务；已有任务在执行时直接返回该任务
+     * <p>
+     * 上一次清理被取消、失败或因进程退出而中断时，从持久化的断点继续。
      *
      * @param operatorId 操作者ID
-     * @return 清理结果统计
+     * @return 任务对象
+     */
+    public synchronized BackgroundJob startCleanup(String operatorId) {
+        BackgroundJob running = currentJob.get();
+        if (running != null && !running.isFinished()) {
+            return running;
+        }
+
+        BackgroundJob job = jobService.submit(JOB_TYPE, operatorId, j -> {
+            try {
+                return cleanup(j);
+            } finally {
+                // 清理后数量已变化，下次预览重新计数
+                previewCache.set(null);
+            }
+        });
+        currentJob.set(job);
+        return job;
+    }
+
+    /**
+     * 请求取消正在执行的清理任务
+     *
+     * @return 存在未结束的任务时返回 true
+     */
+    public boolean cancelCleanup() {
+        BackgroundJob job = currentJob.get();
+        return job != null && jobService.cancel(job.getId());
+    }
+
+    /**
+     * @return 最近一次清理任务（仅限本进程内提交的）
+     */
+    public Optional<BackgroundJob> lastCleanupJob() {
+        return Optional.ofNullable(currentJob.get());
+    }
+
+    /**
+     * @return 持久化的断点，从未执行过清理时为空
+     */
+    public Optional<Checkpoint> loadCheckpoint() {
+        Row row = Db.selectOneBySql(
+                "SELECT job_id, phase, last_id, processed, state, updated_at FROM maintenance_checkpoint WHERE task = ?",
+                JOB_TYPE);
+        if (row == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new Checkpoint(
+                row.getString("job_id"),
+                OrphanType.valueOf(row.getString("phase")),
+                row.getString("last_id"),
+                Optional.ofNullable(row.getLong("processed")).orElse(0L),
+                row.getString("state"),
+                Optional.ofNullable(row.getLong("updated_at")).orElse(0L)
+        ));
+    }
+
+    /**
+     * 清理断点
+     *
+     * @param jobId     写入断点的任务ID
+     * @param phase     当前阶段
+     * @param lastId    当前阶段已处理到的最后一个ID
+     * @param processed 本轮清理（含之前被中断的部分）累计删除的行数
+     * @param state     RUNNING / CANCELLED / FAILED / DONE
+     * @param updatedAt 最后更新时间
      */
-    @Transactional
-    public CleanupResult executeCleanup(String operatorId) {
-        log.info("Starting cache cleanup, operatorId={}", operatorId);
+    public record Checkpoint(String jobId, OrphanType phase, String lastId, long processed, String state, long updatedAt) {
+        boolean isResumable() {
+            return !STATE_DONE.equals(state);
+        }
 
-        // 查找孤立数据
-        List<String> orphanedSiteIds = findOrphanedSites();
-        List<String> orphanedUserIds = findOrphanedUsers();
-        List<String> orphanedGroupIds = findOrphanedGroups();
+        public Map<String, Object> toView() {
+            Map<String, Object> view = new HashMap<>();
+            view.put("jobId", jobId);
+            view.put("phase", phase.name());
+            view.put("lastId", lastId);
+            view.put("processed", processed);
+            view.put("state", state);
+            view.put("updatedAt", updatedAt);
+            return view;
+        }
+    }
 
-        // 删除孤立站点
-        for (String siteId : orphanedSiteIds) {
-            cookieBundleMapper.deleteById(siteId);
+    /**
+     * @return 完整扫完一轮返回 true，被取消时返回 false
+     */
+    private boolean cleanup(BackgroundJob job) {
+        Checkpoint resumeFrom = loadCheckpoint().filter(Checkpoint::isResumable).orElse(null);
+        OrphanType startPhase = resumeFrom != null ? resumeFrom.phase() : OrphanType.SITES;
+        String lastId = resumeFrom != null ? resumeFrom.lastId() : "";
+        long priorProcessed = resumeFrom != null ? resumeFrom.processed() : 0;
+        if (resumeFrom != null) {
+            log.info("Resuming cache cleanup from checkpoint: phase={}, lastId={}, processed={}",
+                    startPhase, lastId, priorProcessed);
         }
-        log.info("Deleted {} orphaned sites", orphanedSiteIds.size());
 
-        // 删除孤立用户
-        for (String userId : orphanedUserIds) {
-            userMapper.deleteById(userId);
+        // 每次执行都扫完整一轮，剩余量统计全部类型，用于估算剩余时间
+        long total = 0;
+        for (OrphanType type : OrphanType.values()) {
+            total += countOrphans(type);
         }
-        log.info("Deleted {} orphaned users", orphanedUserIds.size());
+        job.setTotal(total);
 
-        // 删除孤立组
-        for (String groupId : orphanedGroupIds) {
-            userGroupMapper.deleteById(groupId);
+        try {
+            for (Segment segment : scanPlan(startPhase, lastId)) {
+                if (!purge(job, segment, priorProcessed)) {
+                    log.info("Cache cleanup cancelled: jobId={}, progress={}", job.getId(), job.counters());
+                    return false;
+                }
+            }
+        } catch (RuntimeException e) {
+            markCheckpoint(job, STATE_FAILED);
+            throw e;
         }
-        log.info("Deleted {} orphaned groups", orphanedGroupIds.size());
 
-        log.info("Cache cleanup completed: operatorId={}, sites={}, users={}, groups={}",
-                operatorId, orphanedSiteIds.size(), orphanedUserIds.size(), orphanedGroupIds.size());
+        saveCheckpoint(job.getId(), startPhase, "", priorProcessed + job.getProcessed(), STATE_DONE);
+        log.info("Cache cleanup completed: jobId={}, operatorId={}, progress={}",
+                job.getId(), job.getOwnerId(), job.counters());
+        return true;
+    }
 
-        return new CleanupResult(
-                orphanedSiteIds.size(),
-                orphanedUserIds.size(),
-                orphanedGroupIds.size()
-        );
+    /**
+     * 删除一段孤立数据：每批按ID删除后自动提交并写断点，批次之间检查取消标记并暂停
+     *
+     * @param priorProcessed 之前被中断的执行已删除的行数，与本任务的处理量相加后写入断点
+     * @return 扫到该段末尾返回 true，被取消时返回 false
+     */
+    private boolean purge(BackgroundJob job, Segment segment, long priorProcessed) {
+        OrphanType type = segment.type();
+        String afterId = segment.afterId();
+        String counter = COUNTERS.get(type);
+        job.add(counter, 0);
+
+        while (true) {
+            if (job.isCancelRequested()) {
+                markCheckpoint(job, STATE_CANCELLED);
+                return false;
+            }
+
+            List<String> ids = nextOrphanIds(type, afterId, segment.upToId(), batchSize);
+            if (ids.isEmpty()) {
+                return true;
+            }
+
+            int deleted = switch (type) {
+                case SITES -> cookieBundleMapper.deleteBatchByIds(ids);
+                case USERS -> {
+                    // audit_log 没有外键，删除用户前把审计记录中的 user_id 置空
+                    Db.updateBySql("UPDATE audit_log SET user_id = NULL WHERE user_id IN ("
+                            + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")", ids.toArray());
+                    yield userMapper.deleteBatchByIds(ids);
+                }
+                case GROUPS -> userGroupMapper.deleteBatchByIds(ids);
+            };
+            afterId = ids.get(ids.size() - 1);
+
+            job.add(counter, deleted);
+            job.advance(deleted);
+            job.setCheckpoint(type.name() + "/" + afterId);
+            saveCheckpoint(job.getId(), type, afterId, priorProcessed + job.getProcessed(), STATE_RUNNING);
+
+            if (ids.size() < batchSize) {
+                return true;
+            }
+            if (!pause()) {
+                job.requestCancel();
+            }
+        }
+    }
+
+    /**
+     * 只更新断点状态，保留阶段和位置
+     */
+    private void markCheckpoint(BackgroundJob job, String state) {
+        Db.updateBySql("UPDATE maintenance_checkpoint SET state = ?, updated_at = ? WHERE task = ? AND job_id = ?",
+                state, System.currentTimeMillis(), JOB_TYPE, job.getId());
+    }
+
+    private void saveCheckpoint(String jobId, OrphanType phase, String lastId, long processed, String state) {
+        Db.updateBySql("INSERT INTO maintenance_checkpoint (task, job_id, phase, last_id, processed, state, updated_at) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?) "
+                        + "ON DUPLICATE KEY UPDATE job_id = VALUES(job_id), phase = VALUES(phase), last_id = VALUES(last_id), "
+                        + "processed = VALUES(processed), state = VALUES(state), updated_at = VALUES(updated_at)",
+                JOB_TYPE, jobId, phase.name(), lastId, processed, state, System.currentTimeMillis());
+    }
+
+    private boolean pause() {
+        if (pauseMillis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 }
@@ -1,137 +1,344 @@
 package app.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.time.Instant;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.Base64;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * CAPTCHA generation and validation.
+ * <p>
+ * Images are pre-rendered by a background producer into a bounded pool, so a request only
+ * polls the pool and registers the code. The producer sleeps until the pool drops below the
+ * low watermark and then refills it up to the high watermark. When the pool is empty the
+ * image is rendered on the request thread as before.
+ * <p>
+ * In {@code stateless} mode the UUID handed to the client is a signed token (see
+ * {@link StatelessCaptchaTokens}) instead of a key into the local store, so any node holding the
+ * same secret can validate it.
+ * <p>
+ * Rendering reuses a per-thread indexed-color image, graphics context and PNG writer, uses a
+ * shared font and palette, and emits a 16-color palette PNG.
+ */
 @Service
 public class CaptchaService {
+    private static final Logger log = LoggerFactory.getLogger(CaptchaService.class);
 
     private static final int WIDTH = 100;
     private static final int HEIGHT = 40;
     private static final int FONT_SIZE = 24;
     private static final long EXPIRATION_SECONDS = 300; // 5 minutes
+    private static final String CODE_CHARS = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789"; // Removed ambiguous chars 1, I, 0, O
+    public static final String MIME_TYPE = "image/png";
 
-    // Map<UUID, CaptchaItem>
-    private final Map<String, CaptchaItem> captchaStore = new ConcurrentHashMap<>();
-    private final Random random = new Random();
+    // Shared, immutable rendering resources
+    private static final Font FONT = new Font("Arial", Font.BOLD, FONT_SIZE);
+    private static final IndexColorModel PALETTE = buildPalette();
+    private static final Color[] PALETTE_COLORS = paletteColors();
+    private static final int BACKGROUND = 0;
+    private static final int BORDER = 1;
+    private static final int LINE_COLORS = 2;
+    private static final int LINE_COLOR_COUNT = 8;
+    private static final int TEXT_COLORS = 10;
+    private static final int TEXT_COLOR_COUNT = 6;
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
 
-    private record CaptchaItem(String code, Instant expireAt) {
+    // UUID -> code, expired in insertion order with a hard size cap (store mode)
+    private final ExpiringCaptchaStore captchaStore;
+    // Signed tokens (stateless mode), null in store mode
+    private final StatelessCaptchaTokens statelessTokens;
+
+    // Pre-rendered images waiting to be handed out
+    private final BlockingQueue<Rendered> pool;
+    private final boolean poolEnabled;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final Object refillSignal = new Object();
+    private Thread producer;
+
+    private final Counter poolHits;
+    private final Counter poolMisses;
+
+    public CaptchaService(
+            MeterRegistry meterRegistry,
+            @Value("${anydoor.captcha.pool.enabled:true}") boolean poolEnabled,
+            @Value("${anydoor.captcha.pool.low-watermark:64}") int lowWatermark,
+            @Value("${anydoor.captcha.pool.high-watermark:256}") int highWatermark,
+            @Value("${anydoor.captcha.store.max-entries:100000}") int maxEntries,
+            @Value("${anydoor.captcha.mode:store}") String mode,
+            @Value("${anydoor.captcha.hmac-secret:}") String hmacSecret,
+            @Value("${anydoor.captcha.stateless.expected-per-window:100000}") int expectedPerWindow
+    ) {
+        long ttlMillis = TimeUnit.SECONDS.toMillis(EXPIRATION_SECONDS);
+        this.captchaStore = new ExpiringCaptchaStore(meterRegistry, ttlMillis, maxEntries);
+
+        if ("stateless".equalsIgnoreCase(mode)) {
+            byte[] secret;
+            if (hmacSecret == null || hmacSecret.isBlank()) {
+                // Tokens from other nodes (or from before a restart) will not validate
+                log.warn("anydoor.captcha.hmac-secret is not set; using a random per-process key");
+                secret = new byte[32];
+                new SecureRandom().nextBytes(secret);
+            } else {
+                secret = hmacSecret.getBytes(StandardCharsets.UTF_8);
+            }
+            this.statelessTokens = new StatelessCaptchaTokens(secret, ttlMillis, expectedPerWindow);
+        } else {
+            this.statelessTokens = null;
+        }
+        this.poolEnabled = poolEnabled;
+        this.highWatermark = Math.max(1, highWatermark);
+        this.lowWatermark = Math.min(Math.max(0, lowWatermark), this.highWatermark - 1);
+        this.pool = new ArrayBlockingQueue<>(this.highWatermark);
+
+        this.poolHits = Counter.builder("anydoor.captcha.pool")
+                .tag("result", "hit")
+                .description("Captchas served from the pre-rendered pool")
+                .register(meterRegistry);
+        this.poolMisses = Counter.builder("anydoor.captcha.pool")
+                .tag("result", "miss")
+                .description("Captchas rendered on the request thread because the pool was empty")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.captcha.pool.depth", pool, BlockingQueue::size)
+                .description("Pre-rendered captchas currently in the pool")
+                .register(meterRegistry);
     }
 
-    public record CaptchaResult(String uuid, String imageBase64) {
+    // A rendered image and the code drawn on it; the UUID is assigned when it is handed out
+    private record Rendered(String code, String imageBase64) {
+    }
+
+    public record CaptchaResult(String uuid, String imageBase64, String mimeType) {
     }
 
     /**
      * Generate a new CAPTCHA
      */
     public CaptchaResult generate() {
-        // Cleanup expired items occasionally (simple strategy: cleanup on every generation is too heavy, maybe probabalistic or just ignore for MVP/low volume)
-        // For MVP, let's just cleanup expired ones if map gets too big or just every time for simplicity if volume is low.
-        // Let's do a probabilistic cleanup or just simple cleanup.
-        if (captchaStore.size() > 1000) {
-            cleanupExpired();
+        Rendered rendered = takeRendered();
+        if (statelessTokens != null) {
+            return new CaptchaResult(statelessTokens.issue(rendered.code()), rendered.imageBase64(), MIME_TYPE);
         }
 
         String uuid = UUID.randomUUID().toString();
-        String code = generateRandomCode(4);
-        
-        // Store
-        captchaStore.put(uuid, new CaptchaItem(code, Instant.now().plusSeconds(EXPIRATION_SECONDS)));
 
-        // Generate Image
-        String imageBase64 = generateCaptchaImageBase64(code);
+        // Store; expiry starts when the captcha is handed out, not when it was rendered
+        captchaStore.put(uuid, rendered.code());
+
+        return new CaptchaResult(uuid, rendered.imageBase64(), MIME_TYPE);
+    }
+
+    @PostConstruct
+    public void startProducer() {
+        if (!poolEnabled) {
+            return;
+        }
+        producer = new Thread(this::produce, "captcha-producer");
+        producer.setDaemon(true);
+        producer.setPriority(Thread.MIN_PRIORITY);
+        producer.start();
+    }
 
-        return new CaptchaResult(uuid, imageBase64);
+    @PreDestroy
+    public void stopProducer() {
+        if (producer != null) {
+            producer.interrupt();
+        }
     }
 
     /**
-     * Validate the CAPTCHA code
+     * Poll the pool, falling back to synchronous rendering when it is empty
      */
-    public boolean validate(String uuid, String inputCode) {
-        if (uuid == null || inputCode == null) {
-            return false;
+    private Rendered takeRendered() {
+        if (!poolEnabled) {
+            return render();
         }
 
-        CaptchaItem item = captchaStore.remove(uuid); // One-time use
-        if (item == null) {
-            return false;
+        Rendered rendered = pool.poll();
+        if (pool.size() < lowWatermark) {
+            synchronized (refillSignal) {
+                refillSignal.notifyAll();
+            }
         }
 
-        if (Instant.now().isAfter(item.expireAt())) {
-            return false;
+        if (rendered != null) {
+            poolHits.increment();
+            return rendered;
         }
-
-        return item.code().equalsIgnoreCase(inputCode);
+        poolMisses.increment();
+        return render();
     }
 
-    private void cleanupExpired() {
-        Iterator<Map.Entry<String, CaptchaItem>> it = captchaStore.entrySet().iterator();
-        Instant now = Instant.now();
-        while (it.hasNext()) {
-            if (now.isAfter(it.next().getValue().expireAt())) {
-                it.remove();
+    /**
+     * Producer loop: wait until the pool falls below the low watermark, then fill it to the high watermark
+     */
+    private void produce() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                synchronized (refillSignal) {
+                    while (pool.size() >= lowWatermark && !pool.isEmpty()) {
+                        refillSignal.wait();
+                    }
+                }
+                while (pool.size() < highWatermark) {
+                    if (!pool.offer(render())) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.warn("Captcha pre-rendering failed: {}", e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
             }
         }
     }
 
+    private Rendered render() {
+        String code = generateRandomCode(4);
+        return new Rendered(code, generateCaptchaImageBase64(code));
+    }
+
+    /**
+     * Validate the CAPTCHA code
+     */
+    public boolean validate(String uuid, String inputCode) {
+        if (uuid == null || inputCode == null) {
+            return false;
+        }
+
+        if (statelessTokens != null) {
+            return statelessTokens.verify(uuid, inputCode);
+        }
+
+        String code = captchaStore.take(uuid); // One-time use, null if unknown or expired
+        return code != null && code.equalsIgnoreCase(inputCode);
+    }
+
     private String generateRandomCode(int length) {
-        String chars = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789"; // Removed ambiguous chars 1, I, 0, O
-        StringBuilder sb = new StringBuilder();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] code = new char[length];
         for (int i = 0; i < length; i++) {
-            sb.append(chars.charAt(random.nextInt(chars.length())));
+            code[i] = CODE_CHARS.charAt(random.nextInt(CODE_CHARS.length()));
         }
-        return sb.toString();
+        return new String(code);
     }
 
     private String generateCaptchaImageBase64(String code) {
-        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = image.createGraphics();
+        Scratch scratch = SCRATCH.get();
+        Graphics2D g = scratch.graphics;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
 
         // Background
-        g.setColor(new Color(240, 240, 240));
+        g.setColor(PALETTE_COLORS[BACKGROUND]);
         g.fillRect(0, 0, WIDTH, HEIGHT);
 
         // Border
-        g.setColor(new Color(200, 200, 200));
+        g.setColor(PALETTE_COLORS[BORDER]);
         g.drawRect(0, 0, WIDTH - 1, HEIGHT - 1);
 
         // Random lines
-        g.setStroke(new BasicStroke(1.0f));
         for (int i = 0; i < 5; i++) {
-            g.setColor(new Color(random.nextInt(200), random.nextInt(200), random.nextInt(200)));
+            g.setColor(PALETTE_COLORS[LINE_COLORS + random.nextInt(LINE_COLOR_COUNT)]);
             g.drawLine(random.nextInt(WIDTH), random.nextInt(HEIGHT), random.nextInt(WIDTH), random.nextInt(HEIGHT));
         }
 
         // Code
-        g.setFont(new Font("Arial", Font.BOLD, FONT_SIZE));
+        code.getChars(0, code.length(), scratch.glyphs, 0);
         int x = 10;
-        for (char c : code.toCharArray()) {
-            g.setColor(new Color(random.nextInt(100), random.nextInt(100), random.nextInt(100))); // Darker colors for text
+        for (int i = 0; i < code.length(); i++) {
+            g.setColor(PALETTE_COLORS[TEXT_COLORS + random.nextInt(TEXT_COLOR_COUNT)]); // Darker colors for text
             // Random y pos
             int y = 20 + random.nextInt(15);
-            g.drawString(String.valueOf(c), x, y);
+            g.drawChars(scratch.glyphs, i, 1, x, y);
             x += 20;
         }
 
-        g.dispose();
-
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            ImageIO.write(image, "jpg", baos);
-            return Base64.getEncoder().encodeToString(baos.toByteArray());
+        scratch.png.reset();
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(scratch.png)) {
+            scratch.writer.setOutput(out);
+            scratch.writer.write(scratch.image);
         } catch (IOException e) {
             throw new RuntimeException("Failed to generate captcha image", e);
+        } finally {
+            scratch.writer.setOutput(null);
+        }
+        return Base64.getEncoder().encodeToString(scratch.png.toByteArray());
+    }
+
+    /**
+     * Per-thread rendering state: the image, its graphics context, the PNG writer and output buffer
+     * are reused across captchas rendered on the same thread.
+     */
+    private static final class Scratch {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED, PALETTE);
+        final Graphics2D graphics = image.createGraphics();
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        final ByteArrayOutputStream png = new ByteArrayOutputStream(1024);
+        final char[] glyphs = new char[8];
+
+        Scratch() {
+            graphics.setFont(FONT);
+            graphics.setStroke(new BasicStroke(1.0f));
+            // Antialiasing would blend into colors outside the palette
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+        }
+    }
+
+    /**
+     * 16-color palette: background, border, 8 line colors (channels < 200), 6 text colors (channels < 100)
+     */
+    private static IndexColorModel buildPalette() {
+        int[][] rgb = {
+                {240, 240, 240}, {200, 200, 200},
+                {180, 60, 60}, {60, 150, 60}, {60, 90, 180}, {170, 130, 40},
+                {140, 60, 160}, {40, 150, 150}, {120, 120, 120}, {190, 100, 20},
+                {90, 10, 10}, {10, 70, 10}, {10, 30, 90}, {70, 40, 0}, {60, 0, 80}, {30, 30, 30}
+        };
+        byte[] r = new byte[rgb.length];
+        byte[] gr = new byte[rgb.length];
+        byte[] b = new byte[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            r[i] = (byte) rgb[i][0];
+            gr[i] = (byte) rgb[i][1];
+            b[i] = (byte) rgb[i][2];
+        }
+        return new IndexColorModel(4, rgb.length, r, gr, b);
+    }
+
+    private static Color[] paletteColors() {
+        Color[] colors = new Color[PALETTE.getMapSize()];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = new Color(PALETTE.getRGB(i));
         }
+        return colors;
     }
 }
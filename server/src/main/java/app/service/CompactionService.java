@@ -0,0 +1,219 @@
+// 软删除数据压缩
+// 定期物理删除超过保留期的不可见引用（is_visible = 0）和已撤销/已删除的分享记录
+// 引用按 (hidden_at, id) 键集分页走 idx_reference_hidden，分享按主键键集分页
+// 每批删除后自动提交并暂停一小段时间，避免与线上请求争抢锁和 IO
+// 回收的字节数按表的平均行大小（含索引）估算
+
+package app.service;
+
+import com.mybatisflex.core.row.Db;
+import com.mybatisflex.core.row.Row;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Service
+public class CompactionService {
+    private static final Logger log = LoggerFactory.getLogger(CompactionService.class);
+
+    public static final String JOB_TYPE = "COMPACTION";
+
+    private final BackgroundJobService jobService;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final long retentionMillis;
+    private final int batchSize;
+    private final long pauseMillis;
+
+    // 最近一次压缩任务，供管理接口查看
+    private final AtomicReference<BackgroundJob> lastJob = new AtomicReference<>();
+
+    public CompactionService(
+            BackgroundJobService jobService,
+            MeterRegistry meterRegistry,
+            @Value("${anydoor.compaction.enabled:true}") boolean enabled,
+            @Value("${anydoor.compaction.retention-days:30}") long retentionDays,
+            @Value("${anydoor.compaction.batch-size:500}") int batchSize,
+            @Value("${anydoor.compaction.pause-ms:200}") long pauseMillis
+    ) {
+        this.jobService = jobService;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * 定时压缩（默认每天凌晨 3:30）
+     */
+    @Scheduled(cron = "${anydoor.compaction.cron:0 30 3 * * *}")
+    public void scheduledCompaction() {
+        if (!enabled) {
+            return;
+        }
+        start("system");
+    }
+
+    /**
+     * 提交一次压缩任务；已有任务在执行时直接返回该任务
+     *
+     * @param operatorId 触发者ID
+     * @return 任务对象
+     */
+    public synchronized BackgroundJob start(String operatorId) {
+        BackgroundJob running = lastJob.get();
+        if (running != null && !running.isFinished()) {
+            return running;
+        }
+
+        BackgroundJob job = jobService.submit(JOB_TYPE, operatorId, this::compact);
+        lastJob.set(job);
+        return job;
+    }
+
+    /**
+     * @return 最近一次压缩任务
+     */
+    public Optional<BackgroundJob> lastJob() {
+        return Optional.ofNullable(lastJob.get());
+    }
+
+    /**
+     * @return 三类数据都清理完返回 true，被取消时返回 false
+     */
+    private boolean compact(BackgroundJob job) {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+
+        // 先删引用，再删分享，避免删除分享时外键级联把大量引用的 share_id 置空
+        // 只清理记录了 hidden_at 的引用；升级前隐藏的旧数据需按 DATABASE_README 先回填
+        return purge(job, "user_bundle_reference", "references", "hidden_at",
+                "is_visible = 0 AND hidden_at < ?",
+                cutoff)
+                && purge(job, "bundle_share", "revokedShares", null,
+                "status = 'REVOKED' AND COALESCE(revoked_at, created_at) < ?",
+                cutoff)
+                && purge(job, "bundle_share", "deletedShares", null,
+                "status = 'DELETED' AND COALESCE(revoked_at, created_at) < ?",
+                cutoff);
+    }
+
+    /**
+     * 按 (sortColumn, id) 顺序分批删除满足条件的行
+     *
+     * @param table      表名
+     * @param counter    计数项名称
+     * @param sortColumn 键集排序列（BIGINT，需有以它开头、能覆盖条件的索引），为 null 时只按主键
+     * @param condition  筛选条件
+     * @param args       条件参数
+     * @return 扫描到末尾返回 true，批次之间被取消或中断时返回 false
+     */
+    private boolean purge(BackgroundJob job, String table, String counter, String sortColumn,
+                       String condition, Object... args) {
+        long bytesPerRow = estimateBytesPerRow(table);
+        String select = sortColumn == null
+                ? "SELECT id FROM " + table + " WHERE " + condition + " AND id > ? ORDER BY id LIMIT ?"
+                : "SELECT id, " + sortColumn + " AS sort_key FROM " + table + " WHERE " + condition
+                + " AND (" + sortColumn + " > ? OR (" + sortColumn + " = ? AND id > ?))"
+                + " ORDER BY " + sortColumn + ", id LIMIT ?";
+        long lastSortKey = Long.MIN_VALUE;
+        String lastId = "";
+        long rows = 0;
+        boolean completed = true;
+
+        while (true) {
+            if (job.isCancelRequested()) {
+                completed = false;
+                break;
+            }
+            Object[] selectArgs = sortColumn == null
+                    ? append(args, lastId, batchSize)
+                    : append(args, lastSortKey, lastSortKey, lastId, batchSize);
+            List<Row> batch = Db.selectListBySql(select, selectArgs);
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            List<Object> ids = batch.stream().map(r -> (Object) r.getString("id")).toList();
+            lastId = (String) ids.get(ids.size() - 1);
+            if (sortColumn != null) {
+                lastSortKey = batch.get(batch.size() - 1).getLong("sort_key");
+            }
+
+            // 删除时再次带上条件，跳过在选出之后又被恢复可见的行
+            String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+            Object[] deleteArgs = append(ids.toArray(), args);
+            int deleted = Db.updateBySql(
+                    "DELETE FROM " + table + " WHERE id IN (" + placeholders + ") AND " + condition,
+                    deleteArgs);
+
+            rows += deleted;
+            job.add(counter, deleted);
+            job.add(counter + "Bytes", deleted * bytesPerRow);
+
+            if (batch.size() < batchSize) {
+                break;
+            }
+            if (!pause()) {
+                completed = false;
+                break;
+            }
+        }
+
+        meterRegistry.counter("anydoor.compaction.rows", "table", table).increment(rows);
+        meterRegistry.counter("anydoor.compaction.bytes", "table", table).increment(rows * bytesPerRow);
+        log.info("Compaction finished: table={}, counter={}, rows={}, estimatedBytes={}",
+                table, counter, rows, rows * bytesPerRow);
+        return completed;
+    }
+
+    /**
+     * 从 information_schema 读取表的平均行大小（数据 + 索引），统计信息缺失时返回 0
+     */
+    private long estimateBytesPerRow(String table) {
+        Row row = Db.selectOneBySql(
+                "SELECT table_rows AS table_rows, data_length AS data_length, index_length AS index_length "
+                        + "FROM information_schema.tables "
+                        + "WHERE table_schema = DATABASE() AND table_name = ?",
+                table);
+        if (row == null) {
+            return 0;
+        }
+        Long tableRows = row.getLong("table_rows");
+        if (tableRows == null || tableRows <= 0) {
+            return 0;
+        }
+        long dataLength = Optional.ofNullable(row.getLong("data_length")).orElse(0L);
+        long indexLength = Optional.ofNullable(row.getLong("index_length")).orElse(0L);
+        return (dataLength + indexLength) / tableRows;
+    }
+
+    private boolean pause() {
+        if (pauseMillis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Object[] append(Object[] head, Object... tail) {
+        Object[] result = new Object[head.length + tail.length];
+        System.arraycopy(head, 0, result, 0, head.length);
+        System.arraycopy(tail, 0, result, head.length, tail.length);
+        return result;
+    }
+}
@@ -0,0 +1,503 @@
+// Sa-Token 持久化存储
+// 启用方式：anydoor.session.store=db（默认仍使用 Sa-Token 自带的内存存储）
+// 数据落在 sa_token_store 表，重启不丢登录态，多个实例共享同一张表
+// 本地只缓存令牌 -> 账号ID 的映射（每次鉴权都要读的 key）；会话对象等可变数据每次读写都直接走数据库，
+// 避免某个节点用旧的 Account-Session 覆盖其他节点刚写入的内容
+// 映射被改写（踢下线、顶下线）或删除（登出）时写一条失效通知到 sa_token_invalidation，
+// 各节点定时拉取并清掉本地缓存，多实例间登出生效的延迟约为一个拉取周期
+// 不存在的令牌（如伪造的令牌）也短暂缓存，避免每次请求都查库；续期只改本地，定时批量回写；过期数据定时清理
+
+package app.service;
+
+import cn.dev33.satoken.dao.SaTokenDao;
+import com.mybatisflex.core.row.BatchArgsSetter;
+import com.mybatisflex.core.row.Db;
+import com.mybatisflex.core.row.Row;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+@ConditionalOnProperty(name = "anydoor.session.store", havingValue = "db")
+public class DbSaTokenDao implements SaTokenDao {
+    private static final Logger log = LoggerFactory.getLogger(DbSaTokenDao.class);
+
+    // 反序列化白名单：只允许 Sa-Token 的会话对象和 JDK 基础类型
+    private static final ObjectInputFilter SESSION_FILTER = ObjectInputFilter.Config.createFilter(
+            "cn.dev33.satoken.**;java.lang.*;java.util.*;java.util.concurrent.*;maxdepth=20;!*");
+
+    private static final int SWEEP_BATCH_SIZE = 1000;
+
+    // 只有令牌映射（{tokenName}:{loginType}:token:{tokenValue} -> loginId）进入本地缓存
+    private static final String TOKEN_KEY_MARKER = ":token:";
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO sa_token_store (store_key, str_value, obj_value, expire_at, updated_at) VALUES (?, ?, ?, ?, ?) "
+                    + "ON DUPLICATE KEY UPDATE str_value = VALUES(str_value), obj_value = VALUES(obj_value), "
+                    + "expire_at = VALUES(expire_at), updated_at = VALUES(updated_at)";
+
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    // 待回写的过期时间（key -> expireAt），由 flushTimeouts 批量写入
+    private final Map<String, Long> pendingTimeouts = new ConcurrentHashMap<>();
+
+    private final long cacheTtlMillis;
+    private final long negativeTtlMillis;
+    private final int cacheMaxEntries;
+    private final long invalidationPollMillis;
+    private final long invalidationRetentionMillis;
+
+    // 上一次拉取失效通知的时间；每次拉取与上一轮重叠一个周期，覆盖加载与失效交错的情况
+    private volatile long lastInvalidationPoll = System.currentTimeMillis();
+
+    private final Counter cacheHits;
+    private final Counter cacheNegativeHits;
+    private final Counter cacheMisses;
+
+    public DbSaTokenDao(
+            MeterRegistry meterRegistry,
+            @Value("${anydoor.session.local-cache-ttl-ms:5000}") long cacheTtlMillis,
+            @Value("${anydoor.session.local-cache-negative-ttl-ms:2000}") long negativeTtlMillis,
+            @Value("${anydoor.session.local-cache-max-entries:50000}") int cacheMaxEntries,
+            @Value("${anydoor.session.invalidation-poll-ms:1000}") long invalidationPollMillis
+    ) {
+        this.cacheTtlMillis = cacheTtlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.cacheMaxEntries = cacheMaxEntries;
+        this.invalidationPollMillis = invalidationPollMillis;
+        // 通知至少保留到缓存自然过期之后，重启后漏拉的通知也已无关紧要
+        this.invalidationRetentionMillis = Math.max(60_000, cacheTtlMillis * 10);
+
+        this.cacheHits = Counter.builder("anydoor.session.cache")
+                .tag("result", "hit")
+                .description("令牌映射本地缓存命中次数")
+                .register(meterRegistry);
+        this.cacheNegativeHits = Counter.builder("anydoor.session.cache")
+                .tag("result", "negative_hit")
+                .description("不存在的 key 命中负缓存的次数")
+                .register(meterRegistry);
+        this.cacheMisses = Counter.builder("anydoor.session.cache")
+                .tag("result", "miss")
+                .description("令牌映射本地缓存未命中次数（含不缓存的会话对象读取）")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.session.cache.size", cache, Map::size)
+                .description("令牌映射本地缓存条目数")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.session.timeout.pending", pendingTimeouts, Map::size)
+                .description("等待批量回写的续期数")
+                .register(meterRegistry);
+
+        log.info("Sa-Token DB store enabled: localCacheTtlMs={}, localCacheMaxEntries={}", cacheTtlMillis, cacheMaxEntries);
+    }
+
+    // ==================== 字符串读写 ====================
+
+    @Override
+    public String get(String key) {
+        Object value = read(key);
+        return value instanceof String s ? s : null;
+    }
+
+    @Override
+    public void set(String key, String value, long timeout) {
+        write(key, value, timeout);
+    }
+
+    @Override
+    public void update(String key, String value) {
+        long expireAt = currentExpireAt(key);
+        if (expireAt == NOT_VALUE_EXPIRE) {
+            return;
+        }
+        writeWithExpireAt(key, value, expireAt);
+        // 踢下线、顶下线会把令牌映射改写为标记值，其他节点需要立即感知
+        publishInvalidation(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        remove(key);
+    }
+
+    @Override
+    public long getTimeout(String key) {
+        return timeoutOf(key);
+    }
+
+    @Override
+    public void updateTimeout(String key, long timeout) {
+        touch(key, timeout);
+    }
+
+    // ==================== 对象读写 ====================
+
+    @Override
+    public Object getObject(String key) {
+        Object value = read(key);
+        return value instanceof String ? null : value;
+    }
+
+    @Override
+    public void setObject(String key, Object object, long timeout) {
+        write(key, object, timeout);
+    }
+
+    @Override
+    public void updateObject(String key, Object object) {
+        long expireAt = currentExpireAt(key);
+        if (expireAt == NOT_VALUE_EXPIRE) {
+            return;
+        }
+        writeWithExpireAt(key, object, expireAt);
+    }
+
+    @Override
+    public void deleteObject(String key) {
+        remove(key);
+    }
+
+    @Override
+    public long getObjectTimeout(String key) {
+        return timeoutOf(key);
+    }
+
+    @Override
+    public void updateObjectTimeout(String key, long timeout) {
+        touch(key, timeout);
+    }
+
+    @Override
+    public List<String> searchData(String prefix, String keyword, int start, int size, boolean sortType) {
+        String sql = "SELECT store_key FROM sa_token_store "
+                + "WHERE store_key LIKE CONCAT(?, '%') AND LOCATE(?, store_key) > 0 "
+                + "AND (expire_at = -1 OR expire_at > ?) "
+                + "ORDER BY store_key " + (sortType ? "ASC" : "DESC") + " LIMIT ?, ?";
+        List<Row> rows = Db.selectListBySql(sql, escapeLike(prefix), keyword == null ? "" : keyword,
+                System.currentTimeMillis(), Math.max(0, start), size < 0 ? Integer.MAX_VALUE : size);
+        List<String> keys = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            keys.add(row.getString("store_key"));
+        }
+        return keys;
+    }
+
+    // ==================== 定时任务 ====================
+
+    /**
+     * 拉取其他节点发布的失效通知，清掉对应的本地缓存
+     * <p>
+     * 查询窗口从上一次拉取时间往前多取一个周期：某个 key 在通知发布前读入、通知之后才放进缓存时，下一轮仍会清掉它。
+     */
+    @Scheduled(fixedDelayString = "${anydoor.session.invalidation-poll-ms:1000}")
+    public void pollInvalidations() {
+        long now = System.currentTimeMillis();
+        long since = lastInvalidationPoll - invalidationPollMillis;
+        List<Row> rows = Db.selectListBySql(
+                "SELECT store_key FROM sa_token_invalidation WHERE created_at >= ?", since);
+        for (Row row : rows) {
+            cache.remove(row.getString("store_key"));
+        }
+        lastInvalidationPoll = now;
+    }
+
+    /**
+     * 批量回写续期
+     * <p>
+     * 续期只更新过期时间，先记在内存里合并，定时一次性写回，避免每次鉴权都写库。
+     */
+    @Scheduled(fixedDelayString = "${anydoor.session.timeout-flush-interval-ms:10000}")
+    public void flushTimeouts() {
+        if (pendingTimeouts.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> batch = new ArrayList<>(pendingTimeouts.size());
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> it = pendingTimeouts.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            // 只移除当前看到的值；并发写入的新值留到下一轮
+            if (pendingTimeouts.remove(entry.getKey(), entry.getValue())) {
+                batch.add(new Object[]{entry.getValue(), now, entry.getKey()});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            Db.updateBatch("UPDATE sa_token_store SET expire_at = ?, updated_at = ? WHERE store_key = ?",
+                    new BatchArgsSetter() {
+                        @Override
+                        public int getBatchSize() {
+                            return batch.size();
+                        }
+
+                        @Override
+                        public Object[] getSqlArgs(int index) {
+                            return batch.get(index);
+                        }
+                    });
+            log.debug("Flushed {} Sa-Token timeouts", batch.size());
+        } catch (Exception e) {
+            // 回写失败则放回队列，等待下一轮（已有更新值的 key 不覆盖）
+            for (Object[] args : batch) {
+                pendingTimeouts.putIfAbsent((String) args[2], (Long) args[0]);
+            }
+            log.warn("Failed to flush {} Sa-Token timeouts: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 清理已过期的数据（数据库分批删除，本地缓存同步清理）
+     */
+    @Scheduled(fixedDelayString = "${anydoor.session.sweep-interval-ms:300000}")
+    public void sweepExpired() {
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(entry -> entry.isExpired(now));
+
+        int total = 0;
+        int deleted;
+        do {
+            deleted = Db.updateBySql(
+                    "DELETE FROM sa_token_store WHERE expire_at <> -1 AND expire_at < ? LIMIT ?",
+                    now, SWEEP_BATCH_SIZE);
+            total += deleted;
+        } while (deleted == SWEEP_BATCH_SIZE);
+
+        if (total > 0) {
+            log.info("Swept {} expired Sa-Token entries", total);
+        }
+
+        Db.updateBySql("DELETE FROM sa_token_invalidation WHERE created_at < ?", now - invalidationRetentionMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushTimeouts();
+    }
+
+    // ==================== 内部实现 ====================
+
+    private Object read(String key) {
+        long now = System.currentTimeMillis();
+        if (!isCacheable(key)) {
+            cacheMisses.increment();
+            CacheEntry loaded = load(key, now);
+            return loaded == null || loaded.isExpired(now) ? null : loaded.value();
+        }
+
+        CacheEntry entry = cache.get(key);
+        if (entry != null && entry.isFresh(now)) {
+            if (entry.value() == null) {
+                cacheNegativeHits.increment();
+            } else {
+                cacheHits.increment();
+            }
+            return entry.isExpired(now) ? null : entry.value();
+        }
+        cacheMisses.increment();
+
+        entry = load(key, now);
+        if (entry == null) {
+            // 负缓存：value 为空且已过期，读取、续期都按不存在处理；写入时直接覆盖
+            if (negativeTtlMillis > 0) {
+                cachePut(key, new CacheEntry(null, 0, now + negativeTtlMillis));
+            } else {
+                cache.remove(key);
+            }
+            return null;
+        }
+        cachePut(key, entry);
+        return entry.isExpired(now) ? null : entry.value();
+    }
+
+    private CacheEntry load(String key, long now) {
+        Row row = Db.selectOneBySql(
+                "SELECT str_value, obj_value, expire_at FROM sa_token_store WHERE store_key = ?", key);
+        if (row == null) {
+            return null;
+        }
+
+        long expireAt = row.getLong("expire_at");
+        // 本节点尚未回写的续期优先
+        Long pending = pendingTimeouts.get(key);
+        if (pending != null) {
+            expireAt = pending;
+        }
+
+        Object value;
+        Object blob = row.get("obj_value");
+        if (blob instanceof byte[] bytes) {
+            value = deserialize(bytes);
+            if (value == null) {
+                return null;
+            }
+        } else {
+            value = row.getString("str_value");
+        }
+        return new CacheEntry(value, expireAt, now + cacheTtlMillis);
+    }
+
+    private void write(String key, Object value, long timeout) {
+        if (timeout == 0 || timeout <= NOT_VALUE_EXPIRE) {
+            return;
+        }
+        writeWithExpireAt(key, value, toExpireAt(timeout));
+    }
+
+    private void writeWithExpireAt(String key, Object value, long expireAt) {
+        long now = System.currentTimeMillis();
+        String strValue = value instanceof String s ? s : null;
+        byte[] objValue = value instanceof String ? null : serialize(value);
+
+        pendingTimeouts.remove(key);
+        Db.updateBySql(UPSERT_SQL, key, strValue, objValue, expireAt, now);
+        if (isCacheable(key)) {
+            cachePut(key, new CacheEntry(value, expireAt, now + cacheTtlMillis));
+        }
+    }
+
+    private void remove(String key) {
+        pendingTimeouts.remove(key);
+        cache.remove(key);
+        Db.updateBySql("DELETE FROM sa_token_store WHERE store_key = ?", key);
+        publishInvalidation(key);
+    }
+
+    /**
+     * 通知其他节点丢弃该 key 的本地缓存；不进入缓存的 key 无需通知
+     */
+    private void publishInvalidation(String key) {
+        if (!isCacheable(key)) {
+            return;
+        }
+        Db.updateBySql("INSERT INTO sa_token_invalidation (store_key, created_at) VALUES (?, ?)",
+                key, System.currentTimeMillis());
+    }
+
+    /**
+     * 续期只改本地缓存并登记待回写；进程异常退出时最多丢失一个回写周期的续期
+     */
+    private void touch(String key, long timeout) {
+        if (currentExpireAt(key) == NOT_VALUE_EXPIRE) {
+            return;
+        }
+
+        long expireAt = toExpireAt(timeout);
+        pendingTimeouts.put(key, expireAt);
+        cache.computeIfPresent(key, (k, entry) -> new CacheEntry(entry.value(), expireAt, entry.freshUntil()));
+    }
+
+    private long timeoutOf(String key) {
+        long expireAt = currentExpireAt(key);
+        if (expireAt == NOT_VALUE_EXPIRE || expireAt == NEVER_EXPIRE) {
+            return expireAt;
+        }
+        long remaining = (expireAt - System.currentTimeMillis()) / 1000;
+        return remaining > 0 ? remaining : NOT_VALUE_EXPIRE;
+    }
+
+    /**
+     * @return 过期时间戳（毫秒）；永不过期返回 -1，不存在或已过期返回 -2
+     */
+    private long currentExpireAt(String key) {
+        long now = System.currentTimeMillis();
+        CacheEntry entry;
+        if (isCacheable(key)) {
+            if (read(key) == null) {
+                return NOT_VALUE_EXPIRE;
+            }
+            entry = cache.get(key);
+        } else {
+            entry = load(key, now);
+        }
+        return entry == null || entry.isExpired(now) ? NOT_VALUE_EXPIRE : entry.expireAt();
+    }
+
+    private static boolean isCacheable(String key) {
+        return key.contains(TOKEN_KEY_MARKER);
+    }
+
+    private void cachePut(String key, CacheEntry entry) {
+        if (cache.size() >= cacheMaxEntries && !cache.containsKey(key)) {
+            long now = System.currentTimeMillis();
+            cache.values().removeIf(e -> !e.isFresh(now) || e.isExpired(now));
+            // 仍然超限则按迭代顺序淘汰到 90%，下次读取时从数据库重新加载
+            Iterator<CacheEntry> it = cache.values().iterator();
+            int target = cacheMaxEntries * 9 / 10;
+            while (cache.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        cache.put(key, entry);
+    }
+
+    private static long toExpireAt(long timeoutSeconds) {
+        return timeoutSeconds == NEVER_EXPIRE ? NEVER_EXPIRE : System.currentTimeMillis() + timeoutSeconds * 1000;
+    }
+
+    private static String escapeLike(String s) {
+        if (s == null) {
+            return "";
+        }
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static byte[] serialize(Object value) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(value);
+        } catch (IOException e) {
+            throw new IllegalStateException("会话序列化失败", e);
+        }
+        return bos.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            ois.setObjectInputFilter(SESSION_FILTER);
+            return ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            // 版本升级后类结构不兼容等情况，视为会话不存在，用户重新登录即可
+            log.warn("Failed to deserialize Sa-Token object: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 本地缓存条目
+     *
+     * @param value      字符串或会话对象；为空表示 key 不存在（负缓存）
+     * @param expireAt   业务过期时间（毫秒，-1 表示永不过期）
+     * @param freshUntil 本地缓存有效期，超过后需从数据库重新加载
+     */
+    private record CacheEntry(Object value, long expireAt, long freshUntil) {
+        boolean isFresh(long now) {
+            return now < freshUntil;
+        }
+
+        boolean isExpired(long now) {
+            return expireAt != NEVER_EXPIRE && expireAt <= now;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+// 过期站点回收
+// 读取时已过滤掉过期站点，这里定期把过期超过宽限期的站点连同引用、跨组分享和分享链接一起物理删除
+// 沿 idx_bundle_expire 按 (expire_at, id) 键集分段扫描，每段只取主键；删除均为带 LIMIT 的自动提交短语句
+// 按每秒删除的站点数限速，避免大批量删除影响线上请求
+
+package app.service;
+
+import com.mybatisflex.core.row.Db;
+import com.mybatisflex.core.row.Row;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class ExpiredBundleReaper {
+    private static final Logger log = LoggerFactory.getLogger(ExpiredBundleReaper.class);
+
+    private final ShareTokenCache shareTokenCache;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final long graceMillis;
+    private final int batchSize;
+    private final int childChunkSize;
+    private final int maxBundlesPerSecond;
+
+    private final Timer batchTimer;
+    // 最近一次扫描开始时超过宽限期、等待删除的站点数
+    private final AtomicLong backlog = new AtomicLong();
+
+    public ExpiredBundleReaper(
+            ShareTokenCache shareTokenCache,
+            MeterRegistry meterRegistry,
+            @Value("${anydoor.expiry.enabled:true}") boolean enabled,
+            @Value("${anydoor.expiry.grace-days:7}") long graceDays,
+            @Value("${anydoor.expiry.batch-size:200}") int batchSize,
+            @Value("${anydoor.expiry.child-chunk-size:1000}") int childChunkSize,
+            @Value("${anydoor.expiry.max-bundles-per-second:500}") int maxBundlesPerSecond
+    ) {
+        this.shareTokenCache = shareTokenCache;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.graceMillis = TimeUnit.DAYS.toMillis(graceDays);
+        this.batchSize = batchSize;
+        this.childChunkSize = childChunkSize;
+        this.maxBundlesPerSecond = maxBundlesPerSecond;
+
+        this.batchTimer = Timer.builder("anydoor.expiry.batch")
+                .description("每批过期站点删除耗时")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.expiry.backlog", backlog, AtomicLong::get)
+                .description("等待删除的过期站点数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 定时回收（默认每 10 分钟一轮，上一轮结束后才开始计时）
+     */
+    @Scheduled(fixedDelayString = "${anydoor.expiry.interval-ms:600000}",
+            initialDelayString = "${anydoor.expiry.initial-delay-ms:60000}")
+    public void reap() {
+        if (!enabled) {
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        backlog.set(Db.selectCount(
+                "SELECT COUNT(*) FROM cookie_bundle WHERE expire_at > 0 AND expire_at < ?", cutoff));
+        if (backlog.get() == 0) {
+            return;
+        }
+
+        long lastExpireAt = 0;
+        String lastId = "";
+        long bundles = 0;
+        long started = System.currentTimeMillis();
+
+        while (true) {
+            // (expire_at, id) 键集，始终落在 idx_bundle_expire 的有界范围内
+            List<Row> batch = Db.selectListBySql(
+                    "SELECT id, expire_at FROM cookie_bundle "
+                            + "WHERE expire_at > 0 AND expire_at < ? AND (expire_at > ? OR (expire_at = ? AND id > ?)) "
+                            + "ORDER BY expire_at, id LIMIT ?",
+                    cutoff, lastExpireAt, lastExpireAt, lastId, batchSize);
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            Row last = batch.get(batch.size() - 1);
+            lastExpireAt = last.getLong("expire_at");
+            lastId = last.getString("id");
+
+            List<String> ids = new ArrayList<>(batch.size());
+            for (Row row : batch) {
+                ids.add(row.getString("id"));
+            }
+
+            long batchStart = System.nanoTime();
+            int deleted = purge(ids, cutoff);
+            long elapsedNanos = System.nanoTime() - batchStart;
+            batchTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+
+            bundles += deleted;
+            backlog.addAndGet(-deleted);
+            shareTokenCache.invalidateBundles(ids);
+
+            if (batch.size() < batchSize) {
+                break;
+            }
+            if (!throttle(deleted, elapsedNanos)) {
+                break;
+            }
+        }
+
+        backlog.set(Math.max(0, backlog.get()));
+        log.info("Expired bundles purged: bundles={}, cutoff={}, tookMs={}",
+                bundles, cutoff, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * 删除一批过期站点：先分块删除引用、跨组分享和分享链接，再删除站点本身
+     * <p>
+     * 每条语句都重新校验过期条件，扫描后被续期的站点不会受影响。
+     *
+     * @return 删除的站点数
+     */
+    private int purge(List<String> ids, long cutoff) {
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        String expired = "SELECT id FROM cookie_bundle WHERE id IN (" + placeholders + ") AND expire_at > 0 AND expire_at < ?";
+
+        drain("user_bundle_reference", "DELETE FROM user_bundle_reference WHERE bundle_id IN (" + expired + ") LIMIT ?", ids, cutoff);
+        drain("cross_group_share", "DELETE FROM cross_group_share WHERE bundle_id IN (" + expired + ") LIMIT ?", ids, cutoff);
+        drain("bundle_share", "DELETE FROM bundle_share WHERE bundle_id IN (" + expired + ") LIMIT ?", ids, cutoff);
+
+        Object[] args = new Object[ids.size() + 1];
+        ids.toArray(args);
+        args[ids.size()] = cutoff;
+        int deleted = Db.updateBySql(
+                "DELETE FROM cookie_bundle WHERE id IN (" + placeholders + ") AND expire_at > 0 AND expire_at < ?", args);
+        meterRegistry.counter("anydoor.expiry.purged", "table", "cookie_bundle").increment(deleted);
+        return deleted;
+    }
+
+    /**
+     * 反复执行带 LIMIT 的删除，直到一批不满为止
+     */
+    private void drain(String table, String sql, List<String> ids, long cutoff) {
+        Object[] args = new Object[ids.size() + 2];
+        ids.toArray(args);
+        args[ids.size()] = cutoff;
+        args[ids.size() + 1] = childChunkSize;
+
+        long total = 0;
+        int affected;
+        do {
+            affected = Db.updateBySql(sql, args);
+            total += affected;
+        } while (affected >= childChunkSize);
+
+        if (total > 0) {
+            meterRegistry.counter("anydoor.expiry.purged", "table", table).increment(total);
+        }
+    }
+
+    /**
+     * 按每秒最多删除的站点数补足本批应占用的时间
+     *
+     * @return 被中断时返回 false
+     */
+    private boolean throttle(int deleted, long elapsedNanos) {
+        if (maxBundlesPerSecond <= 0) {
+            return true;
+        }
+        long budgetMillis = TimeUnit.SECONDS.toMillis(deleted) / maxBundlesPerSecond;
+        long sleepMillis = budgetMillis - TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        if (sleepMillis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(sleepMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
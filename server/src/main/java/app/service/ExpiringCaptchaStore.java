@@ -0,0 +1,109 @@
+package app.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One-time CAPTCHA codes with a fixed time-to-live and a hard size cap.
+ * <p>
+ * Every entry gets the same TTL, so insertion order is also expiry order. Keys are appended to
+ * a FIFO queue and each {@link #put} pops expired keys from its head, which makes cleanup
+ * amortized O(1) instead of a scan over the whole map. When the queue is over capacity the
+ * oldest keys are evicted even if they have not expired yet.
+ */
+class ExpiringCaptchaStore {
+
+    private final Map<String, Item> items = new ConcurrentHashMap<>();
+    // Insertion-ordered keys; may still hold keys that were already consumed by validate
+    private final Queue<Queued> queue = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() is O(n), so the length is tracked separately
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ReentrantLock trimLock = new ReentrantLock();
+
+    private final long ttlMillis;
+    private final int maxEntries;
+
+    private final Counter expired;
+    private final Counter evicted;
+
+    ExpiringCaptchaStore(MeterRegistry meterRegistry, long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+
+        this.expired = Counter.builder("anydoor.captcha.store.removed")
+                .tag("reason", "expired")
+                .description("Captcha entries removed after expiring unused")
+                .register(meterRegistry);
+        this.evicted = Counter.builder("anydoor.captcha.store.removed")
+                .tag("reason", "capacity")
+                .description("Captcha entries evicted early because the store was full")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.captcha.store.size", items, Map::size)
+                .description("Outstanding captcha entries")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Store a code, first expiring and evicting from the head of the queue
+     */
+    void put(String key, String code) {
+        long now = System.currentTimeMillis();
+        trim(now);
+        items.put(key, new Item(code, now + ttlMillis));
+        queue.offer(new Queued(key, now + ttlMillis));
+        queued.incrementAndGet();
+    }
+
+    /**
+     * Remove and return the code if present and not expired (one-time use)
+     */
+    String take(String key) {
+        Item item = items.remove(key);
+        if (item == null || item.expireAt() < System.currentTimeMillis()) {
+            return null;
+        }
+        return item.code();
+    }
+
+    private void trim(long now) {
+        // One trimmer at a time keeps peek/poll consistent; others skip, the next put catches up
+        if (!trimLock.tryLock()) {
+            return;
+        }
+        try {
+            while (true) {
+                Queued head = queue.peek();
+                if (head == null) {
+                    return;
+                }
+                boolean isExpired = head.expireAt() < now;
+                if (!isExpired && queued.get() < maxEntries) {
+                    return;
+                }
+                queue.poll();
+                queued.decrementAndGet();
+
+                // Only count keys that were still outstanding, not ones already validated
+                if (items.remove(head.key()) != null) {
+                    (isExpired ? expired : evicted).increment();
+                }
+            }
+        } finally {
+            trimLock.unlock();
+        }
+    }
+
+    private record Item(String code, long expireAt) {
+    }
+
+    private record Queued(String key, long expireAt) {
+    }
+}
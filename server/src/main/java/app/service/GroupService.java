@@ -11,35 +11,52 @@ import app.model.CookieBundle;
 import app.model.User;
 import app.model.UserGroup;
 import app.model.UserGroupRelation;
+import app.model.dto.KeysetCursor;
 import com.mybatisflex.core.query.QueryWrapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static app.model.table.CookieBundleTableDef.COOKIE_BUNDLE;
 import static app.model.table.UserGroupRelationTableDef.USER_GROUP_RELATION;
 import static app.model.table.UserGroupTableDef.USER_GROUP;
+import static app.model.table.UserTableDef.USER;
 
 @Service
 public class GroupService {
+    // 批量成员操作单次最多处理的用户数（同时限制 IN 列表长度）
+    private static final int BULK_MEMBER_LIMIT = 1000;
+    // 批量插入每批行数
+    private static final int INSERT_BATCH_SIZE = 200;
+
     private final UserGroupMapper groupMapper;
     private final UserGroupRelationMapper relationMapper;
     private final UserMapper userMapper;
     private final CookieBundleMapper bundleMapper;
+    private final int defaultMaxMembers;
 
     public GroupService(
             UserGroupMapper groupMapper,
             UserGroupRelationMapper relationMapper,
             UserMapper userMapper,
-            CookieBundleMapper bundleMapper
+            CookieBundleMapper bundleMapper,
+            @Value("${anydoor.group.default-max-members:100}") int defaultMaxMembers
     ) {
         this.groupMapper = groupMapper;
         this.relationMapper = relationMapper;
         this.userMapper = userMapper;
         this.bundleMapper = bundleMapper;
+        this.defaultMaxMembers = defaultMaxMembers;
     }
 
     /**
@@ -69,7 +86,7 @@ public class GroupService {
         group.ownerId = ownerId;
         group.description = description;
         group.status = "ACTIVE";
-        group.maxMembers = 100;
+        group.maxMembers = defaultMaxMembers;
         group.createdAt = System.currentTimeMillis();
         group.updatedAt = System.currentTimeMillis();
 
@@ -129,7 +146,7 @@ public class GroupService {
                         .where(USER_GROUP_RELATION.GROUP_ID.eq(groupId))
         );
 
-        if (memberCount >= group.maxMembers) {
+        if (memberCount >= memberCapOf(group)) {
             throw new IllegalStateException("组成员已达上限");
         }
 
@@ -177,6 +194,235 @@ public class GroupService {
         relationMapper.deleteById(relation.id);
     }
 
+    /**
+     * 批量添加成员到组
+     * <p>
+     * 整批只做一次权限校验、一次容量校验；已在组内的用户通过一次 IN 查询预先过滤，
+     * 新的成员关系分批插入。容量不足时按输入顺序添加，剩余用户标记为 GROUP_FULL。
+     *
+     * @param groupId     组ID
+     * @param userIds     用户ID列表（可选）
+     * @param usernames   用户名列表（可选）
+     * @param roleInGroup 组内角色（MEMBER / ADMIN）
+     * @param operatorId  操作者ID（用于权限验证）
+     * @return 每个输入项的处理结果（顺序与输入一致，先 userIds 后 usernames）
+     */
+    @Transactional
+    public List<BulkMemberResult> addMembers(
+            String groupId,
+            List<String> userIds,
+            List<String> usernames,
+            String roleInGroup,
+            String operatorId
+    ) {
+        // 1. 验证操作者权限（整批一次）
+        if (!isOwnerOrAdmin(operatorId, groupId)) {
+            throw new IllegalStateException("没有权限添加成员");
+        }
+
+        if (!"MEMBER".equals(roleInGroup) && !"ADMIN".equals(roleInGroup)) {
+            throw new IllegalArgumentException("组内角色只能是 MEMBER 或 ADMIN");
+        }
+
+        UserGroup group = groupMapper.selectOneById(groupId);
+        if (group == null) {
+            throw new IllegalArgumentException("组不存在");
+        }
+
+        // 2. 解析用户
+        List<MemberTarget> targets = resolveMemberTargets(userIds, usernames);
+
+        // 3. 一次 IN 查询找出已在组内的用户
+        Set<String> existingUserIds = new HashSet<>();
+        List<String> candidateIds = targets.stream()
+                .map(MemberTarget::userId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (!candidateIds.isEmpty()) {
+            existingUserIds.addAll(relationMapper.selectObjectListByQueryAs(
+                    QueryWrapper.create()
+                            .select(USER_GROUP_RELATION.USER_ID)
+                            .where(USER_GROUP_RELATION.GROUP_ID.eq(groupId))
+                            .and(USER_GROUP_RELATION.USER_ID.in(candidateIds)),
+                    String.class
+            ));
+        }
+
+        // 4. 检查组成员数量限制（整批一次）
+        long memberCount = relationMapper.selectCountByQuery(
+                QueryWrapper.create()
+                        .where(USER_GROUP_RELATION.GROUP_ID.eq(groupId))
+        );
+        long remaining = memberCapOf(group) - memberCount;
+
+        // 5. 生成结果并收集待插入关系
+        long now = System.currentTimeMillis();
+        Set<String> seen = new HashSet<>();
+        List<UserGroupRelation> toInsert = new ArrayList<>();
+        List<BulkMemberResult> results = new ArrayList<>(targets.size());
+
+        for (MemberTarget target : targets) {
+            if (target.userId() == null) {
+                results.add(new BulkMemberResult(target.input(), null, "NOT_FOUND"));
+            } else if (!seen.add(target.userId())) {
+                results.add(new BulkMemberResult(target.input(), target.userId(), "DUPLICATE"));
+            } else if (existingUserIds.contains(target.userId())) {
+                results.add(new BulkMemberResult(target.input(), target.userId(), "ALREADY_MEMBER"));
+            } else if (toInsert.size() >= remaining) {
+                results.add(new BulkMemberResult(target.input(), target.userId(), "GROUP_FULL"));
+            } else {
+                UserGroupRelation relation = new UserGroupRelation();
+                relation.id = UUID.randomUUID().toString();
+                relation.userId = target.userId();
+                relation.groupId = groupId;
+                relation.roleInGroup = roleInGroup;
+                relation.joinedAt = now;
+                toInsert.add(relation);
+
+                results.add(new BulkMemberResult(target.input(), target.userId(), "ADDED"));
+            }
+        }
+
+        // 6. 批量插入
+        if (!toInsert.isEmpty()) {
+            relationMapper.insertBatch(toInsert, INSERT_BATCH_SIZE);
+        }
+
+        return results;
+    }
+
+    /**
+     * 批量从组中移除成员
+     * <p>
+     * 整批只做一次权限校验，一次 IN 查询取出相关关系，一条 DELETE 删除。
+     * 组主账号不会被移除。
+     *
+     * @param groupId    组ID
+     * @param userIds    用户ID列表（可选）
+     * @param usernames  用户名列表（可选）
+     * @param operatorId 操作者ID
+     * @return 每个输入项的处理结果（顺序与输入一致，先 userIds 后 usernames）
+     */
+    @Transactional
+    public List<BulkMemberResult> removeMembers(
+            String groupId,
+            List<String> userIds,
+            List<String> usernames,
+            String operatorId
+    ) {
+        // 1. 验证操作者权限（整批一次）
+        if (!isOwnerOrAdmin(operatorId, groupId)) {
+            throw new IllegalStateException("没有权限移除成员");
+        }
+
+        // 2. 解析用户
+        List<MemberTarget> targets = resolveMemberTargets(userIds, usernames);
+
+        // 3. 一次 IN 查询取出这些用户在组内的关系
+        List<String> candidateIds = targets.stream()
+                .map(MemberTarget::userId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        Map<String, UserGroupRelation> relationByUser = new HashMap<>();
+        if (!candidateIds.isEmpty()) {
+            List<UserGroupRelation> relations = relationMapper.selectListByQuery(
+                    QueryWrapper.create()
+                            .select(USER_GROUP_RELATION.ID, USER_GROUP_RELATION.USER_ID, USER_GROUP_RELATION.ROLE_IN_GROUP)
+                            .where(USER_GROUP_RELATION.GROUP_ID.eq(groupId))
+                            .and(USER_GROUP_RELATION.USER_ID.in(candidateIds))
+            );
+            for (UserGroupRelation relation : relations) {
+                relationByUser.put(relation.userId, relation);
+            }
+        }
+
+        // 4. 生成结果并收集待删除关系
+        Set<String> seen = new HashSet<>();
+        List<String> toDelete = new ArrayList<>();
+        List<BulkMemberResult> results = new ArrayList<>(targets.size());
+
+        for (MemberTarget target : targets) {
+            UserGroupRelation relation = target.userId() != null ? relationByUser.get(target.userId()) : null;
+            if (target.userId() == null) {
+                results.add(new BulkMemberResult(target.input(), null, "NOT_FOUND"));
+            } else if (!seen.add(target.userId())) {
+                results.add(new BulkMemberResult(target.input(), target.userId(), "DUPLICATE"));
+            } else if (relation == null) {
+                results.add(new BulkMemberResult(target.input(), target.userId(), "NOT_MEMBER"));
+            } else if ("OWNER".equals(relation.roleInGroup)) {
+                results.add(new BulkMemberResult(target.input(), target.userId(), "OWNER_PROTECTED"));
+            } else {
+                toDelete.add(relation.id);
+                results.add(new BulkMemberResult(target.input(), target.userId(), "REMOVED"));
+            }
+        }
+
+        // 5. 一条 DELETE 删除关系
+        if (!toDelete.isEmpty()) {
+            relationMapper.deleteBatchByIds(toDelete);
+        }
+
+        return results;
+    }
+
+    /**
+     * 把批量请求中的用户ID和用户名解析为用户ID（各一次 IN 查询）
+     */
+    private List<MemberTarget> resolveMemberTargets(List<String> userIds, List<String> usernames) {
+        List<String> ids = userIds != null ? userIds : List.of();
+        List<String> names = usernames != null ? usernames : List.of();
+
+        if (ids.isEmpty() && names.isEmpty()) {
+            throw new IllegalArgumentException("用户列表不能为空");
+        }
+        if (ids.size() + names.size() > BULK_MEMBER_LIMIT) {
+            throw new IllegalArgumentException("单次最多处理 " + BULK_MEMBER_LIMIT + " 个用户");
+        }
+
+        Set<String> knownIds = new HashSet<>();
+        if (!ids.isEmpty()) {
+            knownIds.addAll(userMapper.selectObjectListByQueryAs(
+                    QueryWrapper.create()
+                            .select(USER.ID)
+                            .where(USER.ID.in(ids)),
+                    String.class
+            ));
+        }
+
+        Map<String, String> idByUsername = new HashMap<>();
+        if (!names.isEmpty()) {
+            List<User> users = userMapper.selectListByQuery(
+                    QueryWrapper.create()
+                            .select(USER.ID, USER.USERNAME)
+                            .where(USER.USERNAME.in(names))
+            );
+            for (User user : users) {
+                idByUsername.put(user.username, user.id);
+            }
+        }
+
+        List<MemberTarget> targets = new ArrayList<>(ids.size() + names.size());
+        for (String id : ids) {
+            targets.add(new MemberTarget(id, knownIds.contains(id) ? id : null));
+        }
+        for (String name : names) {
+            targets.add(new MemberTarget(name, idByUsername.get(name)));
+        }
+        return targets;
+    }
+
+    private record MemberTarget(String input, String userId) {
+    }
+
+    /**
+     * 批量成员操作的单项结果
+     * status：ADDED / REMOVED / ALREADY_MEMBER / NOT_MEMBER / NOT_FOUND / DUPLICATE / GROUP_FULL / OWNER_PROTECTED
+     */
+    public record BulkMemberResult(String input, String userId, String status) {
+    }
+
     /**
      * 查询用户所在的所有组
      *
@@ -207,16 +453,49 @@ public class GroupService {
     }
 
     /**
-     * 查询组内所有成员
+     * 分页查询组内成员（键集分页，按加入时间升序）
+     * <p>
+     * 走 (group_id, joined_at, id) 或 (group_id, role_in_group, joined_at, id) 索引，
+     * 每页开销与组规模无关。
      *
-     * @param groupId 组ID
-     * @return 成员列表
+     * @param groupId     组ID
+     * @param roleInGroup 角色过滤（可选：OWNER / ADMIN / MEMBER）
+     * @param cursor      上一页返回的游标（可选）
+     * @param limit       每页数量
+     * @return 当前页成员及下一页游标
      */
-    public List<UserGroupRelation> getGroupMembers(String groupId) {
-        return relationMapper.selectListByQuery(
-                QueryWrapper.create()
-                        .where(USER_GROUP_RELATION.GROUP_ID.eq(groupId))
-        );
+    public MemberPage listMembers(String groupId, String roleInGroup, KeysetCursor cursor, int limit) {
+        QueryWrapper query = QueryWrapper.create()
+                .where(USER_GROUP_RELATION.GROUP_ID.eq(groupId));
+
+        if (roleInGroup != null && !roleInGroup.isBlank()) {
+            query.and(USER_GROUP_RELATION.ROLE_IN_GROUP.eq(roleInGroup));
+        }
+
+        if (cursor != null) {
+            query.and(USER_GROUP_RELATION.JOINED_AT.gt(cursor.timestamp())
+                    .or(USER_GROUP_RELATION.JOINED_AT.eq(cursor.timestamp())
+                            .and(USER_GROUP_RELATION.ID.gt(cursor.id()))));
+        }
+
+        query.orderBy(USER_GROUP_RELATION.JOINED_AT.asc(), USER_GROUP_RELATION.ID.asc());
+
+        // 多取一条用于判断是否还有下一页
+        List<UserGroupRelation> rows = relationMapper.selectListByQuery(query.limit(limit + 1));
+
+        if (rows.size() <= limit) {
+            return new MemberPage(rows, null);
+        }
+
+        List<UserGroupRelation> page = rows.subList(0, limit);
+        UserGroupRelation last = page.get(limit - 1);
+        return new MemberPage(page, new KeysetCursor(last.joinedAt, last.id).encode());
+    }
+
+    /**
+     * 成员分页结果，nextCursor 为空表示没有更多数据
+     */
+    public record MemberPage(List<UserGroupRelation> members, String nextCursor) {
     }
 
     /**
@@ -338,6 +617,13 @@ public class GroupService {
         );
     }
 
+    /**
+     * 组成员上限（旧数据 max_members 为空时使用配置的默认值）
+     */
+    private int memberCapOf(UserGroup group) {
+        return group.maxMembers != null ? group.maxMembers : defaultMaxMembers;
+    }
+
     /**
      * 获取组成员数量
      *
@@ -362,7 +648,7 @@ public class GroupService {
         long count = bundleMapper.selectCountByQuery(
                 QueryWrapper.create()
                         .where(COOKIE_BUNDLE.GROUP_ID.eq(groupId))
-                        .and(COOKIE_BUNDLE.EXPIRE_AT.gt(System.currentTimeMillis()))
+                        .and(BundleService.notExpired(System.currentTimeMillis()))
         );
         return (int) count;
     }
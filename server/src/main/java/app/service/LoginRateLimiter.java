@@ -0,0 +1,196 @@
+// 登录限流
+// 在查询数据库和 BCrypt 校验之前，按用户名和 IP 两个维度做令牌桶限流
+// 令牌桶按 key 分散到多个分段，每段容量有上限，空闲的桶定期回收
+
+package app.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Service
+public class LoginRateLimiter {
+    private static final int STRIPES = 16;
+
+    private final StripedBuckets usernameBuckets;
+    private final StripedBuckets ipBuckets;
+    private final Counter rejected;
+
+    public LoginRateLimiter(
+            MeterRegistry meterRegistry,
+            @Value("${anydoor.security.login-rate-limit.username.capacity:5}") int usernameCapacity,
+            @Value("${anydoor.security.login-rate-limit.username.refill-per-minute:5}") double usernameRefillPerMinute,
+            @Value("${anydoor.security.login-rate-limit.ip.capacity:20}") int ipCapacity,
+            @Value("${anydoor.security.login-rate-limit.ip.refill-per-minute:20}") double ipRefillPerMinute,
+            @Value("${anydoor.security.login-rate-limit.max-entries:100000}") int maxEntries,
+            @Value("${anydoor.security.login-rate-limit.idle-seconds:900}") long idleSeconds
+    ) {
+        long idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        int maxPerStripe = Math.max(1, maxEntries / STRIPES);
+        this.usernameBuckets = new StripedBuckets(usernameCapacity, usernameRefillPerMinute, maxPerStripe, idleNanos);
+        this.ipBuckets = new StripedBuckets(ipCapacity, ipRefillPerMinute, maxPerStripe, idleNanos);
+
+        this.rejected = Counter.builder("anydoor.login.rate_limited")
+                .description("登录前被限流拒绝的请求数")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.login.rate_limit.buckets", this, l -> l.usernameBuckets.size() + l.ipBuckets.size())
+                .description("当前持有的登录限流桶数量")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 消耗一次登录机会（先 IP 后用户名）
+     *
+     * @param username 用户名
+     * @param ip       客户端 IP
+     * @throws TooManyRequestsException 任一维度的令牌已用完
+     */
+    public void acquire(String username, String ip) {
+        long now = System.nanoTime();
+
+        long waitNanos = ipBuckets.tryConsume(ip, now);
+        if (waitNanos == 0) {
+            waitNanos = usernameBuckets.tryConsume(normalize(username), now);
+        }
+
+        if (waitNanos > 0) {
+            rejected.increment();
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+            throw new TooManyRequestsException("登录尝试过于频繁，请稍后重试", retryAfter);
+        }
+    }
+
+    /**
+     * 登录成功后重置该用户名的令牌桶
+     */
+    public void onSuccess(String username) {
+        usernameBuckets.reset(normalize(username));
+    }
+
+    /**
+     * 定期回收空闲的令牌桶
+     */
+    @Scheduled(fixedDelayString = "${anydoor.security.login-rate-limit.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        usernameBuckets.evictIdle(now);
+        ipBuckets.evictIdle(now);
+    }
+
+    private static String normalize(String username) {
+        return username.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 分段存储的令牌桶集合
+     */
+    private static final class StripedBuckets {
+        private final Map<String, TokenBucket>[] stripes;
+        private final double capacity;
+        private final double tokensPerNano;
+        private final int maxPerStripe;
+        private final long idleNanos;
+
+        @SuppressWarnings("unchecked")
+        StripedBuckets(int capacity, double refillPerMinute, int maxPerStripe, long idleNanos) {
+            this.capacity = capacity;
+            this.tokensPerNano = refillPerMinute / TimeUnit.MINUTES.toNanos(1);
+            this.maxPerStripe = maxPerStripe;
+            this.idleNanos = idleNanos;
+            this.stripes = new Map[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new ConcurrentHashMap<>();
+            }
+        }
+
+        long tryConsume(String key, long now) {
+            Map<String, TokenBucket> stripe = stripeOf(key);
+            TokenBucket bucket = stripe.get(key);
+            if (bucket == null) {
+                if (stripe.size() >= maxPerStripe) {
+                    shrink(stripe, now);
+                }
+                bucket = stripe.computeIfAbsent(key, k -> new TokenBucket(capacity, now));
+            }
+            return bucket.tryConsume(capacity, tokensPerNano, now);
+        }
+
+        void reset(String key) {
+            stripeOf(key).remove(key);
+        }
+
+        void evictIdle(long now) {
+            for (Map<String, TokenBucket> stripe : stripes) {
+                stripe.values().removeIf(b -> now - b.lastAccess > idleNanos);
+            }
+        }
+
+        int size() {
+            int total = 0;
+            for (Map<String, TokenBucket> stripe : stripes) {
+                total += stripe.size();
+            }
+            return total;
+        }
+
+        /**
+         * 分段已满：先回收空闲桶，仍然超限则按迭代顺序淘汰到 90% 容量
+         */
+        private void shrink(Map<String, TokenBucket> stripe, long now) {
+            stripe.values().removeIf(b -> now - b.lastAccess > idleNanos);
+            int target = maxPerStripe * 9 / 10;
+            Iterator<TokenBucket> it = stripe.values().iterator();
+            while (stripe.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+
+        private Map<String, TokenBucket> stripeOf(String key) {
+            return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+        }
+    }
+
+    /**
+     * 无锁令牌桶：状态为不可变对象，通过 CAS 整体替换
+     */
+    private static final class TokenBucket {
+        private final AtomicReference<State> state;
+        private volatile long lastAccess;
+
+        TokenBucket(double capacity, long now) {
+            this.state = new AtomicReference<>(new State(capacity, now));
+            this.lastAccess = now;
+        }
+
+        /**
+         * @return 0 表示成功消耗一个令牌，否则为下一个令牌可用前需等待的纳秒数
+         */
+        long tryConsume(double capacity, double tokensPerNano, long now) {
+            lastAccess = now;
+            while (true) {
+                State current = state.get();
+                double tokens = Math.min(capacity, current.tokens() + (now - current.refilledAt()) * tokensPerNano);
+                if (tokens < 1) {
+                    return (long) Math.ceil((1 - tokens) / tokensPerNano);
+                }
+                if (state.compareAndSet(current, new State(tokens - 1, Math.max(now, current.refilledAt())))) {
+                    return 0;
+                }
+            }
+        }
+
+        private record State(double tokens, long refilledAt) {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package app.service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ * <p>
+ * Producers claim a sequence number with a CAS on {@code tail} (failing fast when the buffer is
+ * full) and then publish into the slot. The consumer reads slots in sequence order, clears each
+ * one and advances {@code head}; a claimed slot that has not been published yet ends the drain,
+ * so events are always consumed in claim order.
+ */
+class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final int capacity;
+
+    private final AtomicLong tail = new AtomicLong();
+    // Written only by the consumer
+    private volatile long head;
+
+    MpscRingBuffer(int requestedCapacity) {
+        int size = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.capacity = size;
+    }
+
+    /**
+     * Publish an element
+     *
+     * @return false if the buffer is full
+     */
+    boolean offer(E element) {
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head >= capacity) {
+                return false;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+
+        slots.lazySet((int) (seq & mask), element);
+        return true;
+    }
+
+    /**
+     * Move up to {@code max} published elements into {@code sink}; consumer thread only
+     *
+     * @return number of elements drained
+     */
+    int drainTo(List<E> sink, int max) {
+        long h = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) (h & mask);
+            E element = slots.get(index);
+            if (element == null) {
+                break;
+            }
+            slots.lazySet(index, null);
+            sink.add(element);
+            h++;
+            drained++;
+        }
+        head = h;
+        return drained;
+    }
+
+    /**
+     * @return oldest element not yet drained, or null; consumer-side view used for lag metrics
+     */
+    E peek() {
+        return slots.get((int) (head & mask));
+    }
+
+    /**
+     * @return claimed but not yet drained elements
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,200 @@
+// 密码哈希服务
+// BCrypt 校验在独立的有界线程池中执行，登录洪峰时排队超限直接返回 429，不占用 Tomcat 请求线程
+// 批量创建账号时的哈希在单独的 ForkJoin 池中并行计算，并行度有上限，不会挤占登录校验
+
+package app.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+public class PasswordHashService {
+    private static final Logger log = LoggerFactory.getLogger(PasswordHashService.class);
+
+    // 校验池饱和时建议客户端的重试间隔（秒）
+    private static final long BUSY_RETRY_AFTER_SECONDS = 1;
+
+    private final BCryptPasswordEncoder encoder;
+    private final ThreadPoolExecutor verifyExecutor;
+    private final ForkJoinPool bulkEncodePool;
+    private final long verifyTimeoutMillis;
+
+    private final Timer verifyDuration;
+    private final Timer verifyWait;
+    private final Counter verifyRejected;
+    private final Counter rehashed;
+
+    public PasswordHashService(
+            MeterRegistry meterRegistry,
+            @Value("${anydoor.security.bcrypt-strength:10}") int strength,
+            @Value("${anydoor.security.password-verify.threads:0}") int threads,
+            @Value("${anydoor.security.password-verify.queue-capacity:64}") int queueCapacity,
+            @Value("${anydoor.security.password-verify.timeout-ms:5000}") long verifyTimeoutMillis,
+            @Value("${anydoor.security.bulk-hash.threads:0}") int bulkThreads
+    ) {
+        this.encoder = new BCryptPasswordEncoder(strength);
+        this.verifyTimeoutMillis = verifyTimeoutMillis;
+
+        // 线程数默认等于 CPU 核数：BCrypt 是纯 CPU 计算，更多线程只会互相争抢
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadSeq = new AtomicInteger();
+        this.verifyExecutor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "bcrypt-verify-" + threadSeq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+
+        int bulkParallelism = bulkThreads > 0 ? bulkThreads : Math.max(1, poolSize / 2);
+        this.bulkEncodePool = new ForkJoinPool(bulkParallelism, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("bcrypt-bulk-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+
+        Gauge.builder("anydoor.password.verify.queue.depth", verifyExecutor, e -> e.getQueue().size())
+                .description("等待 BCrypt 校验的任务数")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.password.verify.active", verifyExecutor, ThreadPoolExecutor::getActiveCount)
+                .description("正在执行 BCrypt 校验的线程数")
+                .register(meterRegistry);
+        this.verifyDuration = Timer.builder("anydoor.password.verify.duration")
+                .description("单次 BCrypt 校验耗时")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.verifyWait = Timer.builder("anydoor.password.verify.wait")
+                .description("校验任务在队列中的等待时间")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.verifyRejected = Counter.builder("anydoor.password.verify.rejected")
+                .description("因队列已满或超时被拒绝的校验次数")
+                .register(meterRegistry);
+        this.rehashed = Counter.builder("anydoor.password.rehashed")
+                .description("登录时按新强度重新哈希的次数")
+                .register(meterRegistry);
+
+        log.info("Password verify pool started: threads={}, queueCapacity={}, bulkHashThreads={}, bcryptStrength={}",
+                poolSize, queueCapacity, bulkParallelism, strength);
+    }
+
+    /**
+     * 生成密码哈希（调用方线程执行）
+     *
+     * @param rawPassword 明文密码
+     * @return BCrypt 哈希
+     */
+    public String encode(String rawPassword) {
+        return encoder.encode(rawPassword);
+    }
+
+    /**
+     * 批量生成密码哈希（在批量哈希池中并行执行，结果与输入顺序一致）
+     *
+     * @param rawPasswords 明文密码列表
+     * @return BCrypt 哈希列表
+     */
+    public List<String> encodeAll(List<String> rawPasswords) {
+        try {
+            return bulkEncodePool.submit(() -> rawPasswords.parallelStream().map(encoder::encode).toList()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("批量生成密码哈希被中断", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("批量生成密码哈希失败", e.getCause());
+        }
+    }
+
+    /**
+     * 在校验线程池中比对密码
+     * <p>
+     * 若密码正确且存储的哈希强度低于当前配置，顺带在同一任务中生成新强度的哈希，
+     * 由调用方决定是否回写。
+     *
+     * @param rawPassword  明文密码
+     * @param passwordHash 存储的哈希
+     * @return 校验结果
+     * @throws TooManyRequestsException 队列已满或等待超时
+     */
+    public VerifyResult verify(String rawPassword, String passwordHash) {
+        long submittedAt = System.nanoTime();
+        Future<VerifyResult> future;
+        try {
+            future = verifyExecutor.submit(() -> {
+                long startedAt = System.nanoTime();
+                verifyWait.record(startedAt - submittedAt, TimeUnit.NANOSECONDS);
+                try {
+                    boolean matched = encoder.matches(rawPassword, passwordHash);
+                    String upgradedHash = matched && encoder.upgradeEncoding(passwordHash)
+                            ? encoder.encode(rawPassword)
+                            : null;
+                    return new VerifyResult(matched, upgradedHash);
+                } finally {
+                    verifyDuration.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            verifyRejected.increment();
+            throw new TooManyRequestsException("登录请求过多，请稍后重试", BUSY_RETRY_AFTER_SECONDS);
+        }
+
+        try {
+            VerifyResult result = future.get(verifyTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (result.upgradedHash() != null) {
+                rehashed.increment();
+            }
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            verifyRejected.increment();
+            throw new TooManyRequestsException("登录请求过多，请稍后重试", BUSY_RETRY_AFTER_SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("密码校验被中断", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("密码校验失败", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        verifyExecutor.shutdownNow();
+        bulkEncodePool.shutdownNow();
+    }
+
+    /**
+     * 密码校验结果
+     *
+     * @param matched      密码是否正确
+     * @param upgradedHash 按当前强度重新生成的哈希（无需升级时为空）
+     */
+    public record VerifyResult(boolean matched, String upgradedHash) {
+    }
+}
@@ -0,0 +1,96 @@
+package app.service;
+
+import java.util.Arrays;
+
+/**
+ * Time-partitioned Bloom filter for "seen before?" checks on short-lived random keys.
+ * <p>
+ * Two generations are kept: keys are added to the current one and looked up in both. The
+ * generations rotate every {@code windowMillis}, dropping the older one, so a key stays visible
+ * for at least one full window and at most two. Memory is fixed at two bit arrays sized for
+ * {@code expectedPerWindow} insertions at the requested false-positive rate.
+ * <p>
+ * Keys must already be uniformly random (such as a nonce); their first and last 8 bytes are
+ * used directly as the two base hashes for double hashing.
+ */
+class RotatingBloomFilter {
+
+    private final long windowMillis;
+    private final int bits;
+    private final int hashes;
+
+    private long[] current;
+    private long[] previous;
+    private long rotatedAt;
+
+    RotatingBloomFilter(long windowMillis, int expectedPerWindow, double falsePositiveRate) {
+        this.windowMillis = windowMillis;
+
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-expectedPerWindow * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedPerWindow * ln2));
+
+        this.current = new long[(bits + 63) / 64];
+        this.previous = new long[current.length];
+        this.rotatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Record the key
+     *
+     * @param key random key of at least 16 bytes
+     * @return false if the key was (probably) already recorded within the last two windows
+     */
+    synchronized boolean add(byte[] key) {
+        rotateIfDue(System.currentTimeMillis());
+
+        long h1 = readLong(key, 0);
+        long h2 = readLong(key, key.length - 8) | 1;
+        if (contains(previous, h1, h2) || contains(current, h1, h2)) {
+            return false;
+        }
+        for (int i = 0; i < hashes; i++) {
+            int bit = index(h1 + i * h2);
+            current[bit >>> 6] |= 1L << bit;
+        }
+        return true;
+    }
+
+    private boolean contains(long[] words, long h1, long h2) {
+        for (int i = 0; i < hashes; i++) {
+            int bit = index(h1 + i * h2);
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rotateIfDue(long now) {
+        if (now - rotatedAt < windowMillis) {
+            return;
+        }
+        // More than two windows idle: both generations are stale
+        if (now - rotatedAt >= 2 * windowMillis) {
+            Arrays.fill(current, 0L);
+        }
+        long[] recycled = previous;
+        Arrays.fill(recycled, 0L);
+        previous = current;
+        current = recycled;
+        rotatedAt = now;
+    }
+
+    private int index(long hash) {
+        return (int) Math.floorMod(hash, (long) bits);
+    }
+
+    private static long readLong(byte[] b, int offset) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[offset + i] & 0xFF);
+        }
+        return v;
+    }
+}
@@ -0,0 +1,381 @@
+// 审计事件本地分段文件存储（anydoor.audit.sink=file）
+// 事件按批压缩后追加到分段文件，每个分段按大小或时间滚动；每批在同名 .idx 文件中追加一条稀疏时间索引
+// （最小时间、最大时间、偏移、长度），查询时只解压时间范围重叠的批次，分段文件通过内存映射读取
+// 过期数据按整个分段文件删除，不产生逐行 DELETE
+// 写入只进入操作系统页缓存，分段滚动和停机时才 fsync：进程崩溃不丢数据，主机掉电可能丢失当前分段尚未落盘的部分
+//
+// 分段文件格式：若干个块，每块为 [int 压缩后长度][deflate(记录...)]
+// 记录格式：id、userId、action、resourceType、resourceId、ipAddress、userAgent、result、errorMessage（可空字符串）、createdAt
+
+package app.service;
+
+import app.model.AuditLog;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+@Component
+@ConditionalOnProperty(name = "anydoor.audit.sink", havingValue = "file")
+public class SegmentFileAuditSink implements AuditSink {
+    private static final Logger log = LoggerFactory.getLogger(SegmentFileAuditSink.class);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    // 索引项：minTs(8) + maxTs(8) + offset(8) + length(4)
+    private static final int INDEX_ENTRY_BYTES = 28;
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final long maxSegmentMillis;
+    private final long retentionMillis;
+
+    // 以下字段只由审计写入线程访问
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream(64 * 1024);
+    private FileChannel segment;
+    private FileChannel index;
+    private long segmentOpenedAt;
+
+    // 当前写入中的分段，保留期清理时跳过
+    private volatile Path activeSegment;
+
+    public SegmentFileAuditSink(
+            @Value("${anydoor.audit.file.dir:./data/audit}") String dir,
+            @Value("${anydoor.audit.file.max-segment-mb:64}") long maxSegmentMb,
+            @Value("${anydoor.audit.file.max-segment-minutes:60}") long maxSegmentMinutes,
+            @Value("${anydoor.audit.file.retention-days:90}") long retentionDays
+    ) throws IOException {
+        this.dir = Paths.get(dir).toAbsolutePath();
+        this.maxSegmentBytes = maxSegmentMb * 1024 * 1024;
+        this.maxSegmentMillis = TimeUnit.MINUTES.toMillis(maxSegmentMinutes);
+        this.retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+        Files.createDirectories(this.dir);
+    }
+
+    @Override
+    public int write(List<AuditLog> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            rollIfNeeded();
+
+            long minTs = Long.MAX_VALUE;
+            long maxTs = Long.MIN_VALUE;
+            blockBuffer.reset();
+            deflater.reset();
+            try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(blockBuffer, deflater, 8192))) {
+                for (AuditLog event : batch) {
+                    writeRecord(out, event);
+                    minTs = Math.min(minTs, event.createdAt);
+                    maxTs = Math.max(maxTs, event.createdAt);
+                }
+            }
+
+            // 先写数据块，再写索引项：读者只会看到已完整写入的块
+            int length = blockBuffer.size();
+            long offset = segment.size();
+            ByteBuffer block = ByteBuffer.allocate(Integer.BYTES + length);
+            block.putInt(length).put(blockBuffer.toByteArray()).flip();
+            writeFully(segment, block);
+
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            entry.putLong(minTs).putLong(maxTs).putLong(offset).putInt(Integer.BYTES + length).flip();
+            writeFully(index, entry);
+            return batch.size();
+        } catch (IOException e) {
+            log.warn("Failed to append {} audit events to {}: {}", batch.size(), activeSegment, e.getMessage());
+            closeQuietly();
+            return 0;
+        }
+    }
+
+    /**
+     * 按时间范围和用户扫描事件，按时间升序返回
+     *
+     * @param from   起始时间（含）
+     * @param to     结束时间（不含）
+     * @param userId 用户ID，为空时不过滤
+     * @param limit  最多返回条数
+     */
+    public List<AuditLog> scan(long from, long to, String userId, int limit) throws IOException {
+        List<AuditLog> result = new ArrayList<>();
+        forEach(from, to, event -> {
+            if (userId != null && !userId.equals(event.userId)) {
+                return true;
+            }
+            result.add(event);
+            return result.size() < limit;
+        });
+        return result;
+    }
+
+    /**
+     * 按写入顺序逐条访问时间范围内的事件，不在内存中累积结果
+     *
+     * @param from    起始时间（含）
+     * @param to      结束时间（不含）
+     * @param visitor 处理每条事件，返回 false 时停止扫描
+     */
+    public void forEach(long from, long to, Predicate<AuditLog> visitor) throws IOException {
+        for (Path segmentPath : listSegments()) {
+            Path indexPath = indexOf(segmentPath);
+            // 是否跳过整个分段只看索引中每块的最小/最大时间，不依赖文件名（事件时间可能早于分段创建时间）
+            if (!Files.exists(indexPath)) {
+                continue;
+            }
+
+            List<long[]> blocks = overlappingBlocks(indexPath, from, to);
+            if (blocks.isEmpty()) {
+                continue;
+            }
+
+            try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                for (long[] block : blocks) {
+                    long offset = block[0];
+                    int length = (int) block[1];
+                    if (offset + length > mapped.capacity()) {
+                        // 索引指向文件之外（写入中途崩溃），忽略
+                        continue;
+                    }
+                    ByteBuffer slice = mapped.slice((int) offset + Integer.BYTES, length - Integer.BYTES);
+                    try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteBufferInputStream(slice)))) {
+                        while (in.available() > 0) {
+                            AuditLog event;
+                            try {
+                                event = readRecord(in);
+                            } catch (EOFException eof) {
+                                break;
+                            }
+                            if (event.createdAt < from || event.createdAt >= to) {
+                                continue;
+                            }
+                            if (!visitor.test(event)) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除超过保留期的分段（按索引中记录的最大时间判断）
+     */
+    @Scheduled(fixedDelay = 3_600_000, initialDelay = 60_000)
+    public void applyRetention() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        try {
+            for (Path segmentPath : listSegments()) {
+                if (segmentPath.equals(activeSegment)) {
+                    continue;
+                }
+                Path indexPath = indexOf(segmentPath);
+                long lastTs = lastTimestamp(indexPath);
+                if (lastTs < cutoff) {
+                    Files.deleteIfExists(segmentPath);
+                    Files.deleteIfExists(indexPath);
+                    log.info("Deleted audit segment past retention: {}", segmentPath.getFileName());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Audit segment retention failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        closeQuietly();
+    }
+
+    /**
+     * 当前分段超过大小或时长时滚动到新分段；启动后总是新开分段，不向旧文件追加
+     */
+    private void rollIfNeeded() throws IOException {
+        long now = System.currentTimeMillis();
+        if (segment != null && segment.size() < maxSegmentBytes && now - segmentOpenedAt < maxSegmentMillis) {
+            return;
+        }
+        closeQuietly();
+
+        // 文件名中的起始时间只用于排序；同一毫秒内滚动时递增避免重名
+        long start = now;
+        Path segmentPath;
+        do {
+            segmentPath = dir.resolve(String.format("audit-%013d%s", start++, SEGMENT_SUFFIX));
+        } while (Files.exists(segmentPath));
+
+        segment = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexOf(segmentPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segmentOpenedAt = now;
+        activeSegment = segmentPath;
+    }
+
+    /**
+     * 先落盘数据再落盘索引后关闭，索引项不会指向未落盘的块
+     */
+    private void closeQuietly() {
+        for (FileChannel channel : new FileChannel[]{segment, index}) {
+            if (channel != null) {
+                try {
+                    channel.force(true);
+                } catch (IOException ignored) {
+                    // 落盘失败时仍然关闭
+                }
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 关闭失败不影响后续新开分段
+                }
+            }
+        }
+        segment = null;
+        index = null;
+        activeSegment = null;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * 读取索引，返回与 [from, to) 重叠的块的 {偏移, 长度}
+     */
+    private List<long[]> overlappingBlocks(Path indexPath, long from, long to) throws IOException {
+        List<long[]> blocks = new ArrayList<>();
+        ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        while (entries.remaining() >= INDEX_ENTRY_BYTES) {
+            long minTs = entries.getLong();
+            long maxTs = entries.getLong();
+            long offset = entries.getLong();
+            int length = entries.getInt();
+            if (maxTs >= from && minTs < to) {
+                blocks.add(new long[]{offset, length});
+            }
+        }
+        return blocks;
+    }
+
+    private long lastTimestamp(Path indexPath) throws IOException {
+        if (!Files.exists(indexPath)) {
+            return Long.MIN_VALUE;
+        }
+        long last = Long.MIN_VALUE;
+        ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        while (entries.remaining() >= INDEX_ENTRY_BYTES) {
+            entries.getLong();
+            last = Math.max(last, entries.getLong());
+            entries.position(entries.position() + 12);
+        }
+        return last;
+    }
+
+    private static Path indexOf(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return segmentPath.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, AuditLog event) throws IOException {
+        writeNullable(out, event.id);
+        writeNullable(out, event.userId);
+        writeNullable(out, event.action);
+        writeNullable(out, event.resourceType);
+        writeNullable(out, event.resourceId);
+        writeNullable(out, event.ipAddress);
+        writeNullable(out, event.userAgent);
+        writeNullable(out, event.result);
+        writeNullable(out, event.errorMessage);
+        out.writeLong(event.createdAt);
+    }
+
+    private static AuditLog readRecord(DataInputStream in) throws IOException {
+        AuditLog event = new AuditLog();
+        event.id = readNullable(in);
+        event.userId = readNullable(in);
+        event.action = readNullable(in);
+        event.resourceType = readNullable(in);
+        event.resourceId = readNullable(in);
+        event.ipAddress = readNullable(in);
+        event.userAgent = readNullable(in);
+        event.result = readNullable(in);
+        event.errorMessage = readNullable(in);
+        event.createdAt = in.readLong();
+        return event;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * 从映射内存读取，避免把块复制到堆上
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+// 分享令牌缓存
+// share_token -> 分享记录，无效令牌也缓存一小段时间（负缓存），避免被刷接口时反复查库
+// 撤销、删除分享或删除站点时主动失效；失效计数保证与失效并发的加载结果不会写回缓存
+// 多实例部署时其他节点最多在 TTL 内看到旧状态，导入写路径会再向数据库确认分享状态
+
+package app.service;
+
+import app.model.BundleShare;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+@Service
+public class ShareTokenCache {
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    // 每次失效加一；加载期间发生过失效的结果不保留在缓存中
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxEntries;
+
+    private final Counter hits;
+    private final Counter negativeHits;
+    private final Counter misses;
+
+    public ShareTokenCache(
+            MeterRegistry meterRegistry,
+            @Value("${anydoor.share.token-cache.ttl-seconds:60}") long ttlSeconds,
+            @Value("${anydoor.share.token-cache.negative-ttl-seconds:30}") long negativeTtlSeconds,
+            @Value("${anydoor.share.token-cache.max-entries:10000}") int maxEntries
+    ) {
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.negativeTtlMillis = TimeUnit.SECONDS.toMillis(negativeTtlSeconds);
+        this.maxEntries = maxEntries;
+
+        this.hits = Counter.builder("anydoor.share.token_cache")
+                .tag("result", "hit")
+                .description("分享令牌缓存命中次数")
+                .register(meterRegistry);
+        this.negativeHits = Counter.builder("anydoor.share.token_cache")
+                .tag("result", "negative_hit")
+                .description("无效分享令牌命中负缓存的次数")
+                .register(meterRegistry);
+        this.misses = Counter.builder("anydoor.share.token_cache")
+                .tag("result", "miss")
+                .description("分享令牌缓存未命中次数")
+                .register(meterRegistry);
+        Gauge.builder("anydoor.share.token_cache.size", cache, Map::size)
+                .description("分享令牌缓存条目数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 按令牌查询分享记录
+     * <p>
+     * 返回的对象在多个请求间共享，调用方不得修改。
+     *
+     * @param shareToken 分享令牌
+     * @param loader     未命中时从数据库加载（不存在返回 null）
+     * @return 分享记录，令牌无效时为 null
+     */
+    public BundleShare lookup(String shareToken, Function<String, BundleShare> loader) {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(shareToken);
+        if (entry != null && entry.expiresAt() > now) {
+            if (entry.share() == null) {
+                negativeHits.increment();
+            } else {
+                hits.increment();
+            }
+            return entry.share();
+        }
+
+        misses.increment();
+        long generation = invalidations.get();
+        BundleShare share = loader.apply(shareToken);
+        Entry loaded = new Entry(share, now + (share != null ? ttlMillis : negativeTtlMillis));
+        put(shareToken, loaded);
+        // 先写入再检查：若加载期间有失效，撤回刚写入的条目，避免失效之前读到的旧状态在缓存中存活到 TTL
+        if (invalidations.get() != generation) {
+            cache.remove(shareToken, loaded);
+        }
+        return share;
+    }
+
+    /**
+     * 使某个令牌失效
+     */
+    public void invalidate(String shareToken) {
+        if (shareToken != null) {
+            invalidations.incrementAndGet();
+            cache.remove(shareToken);
+        }
+    }
+
+    /**
+     * 使某个站点的所有分享令牌失效
+     */
+    public void invalidateBundle(String bundleId) {
+        invalidations.incrementAndGet();
+        cache.values().removeIf(e -> e.share() != null && bundleId.equals(e.share().bundleId));
+    }
+
+    /**
+     * 使一批站点的所有分享令牌失效
+     */
+    public void invalidateBundles(Collection<String> bundleIds) {
+        if (bundleIds.isEmpty()) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        Set<String> ids = new HashSet<>(bundleIds);
+        cache.values().removeIf(e -> e.share() != null && ids.contains(e.share().bundleId));
+    }
+
+    /**
+     * 定期清理过期条目
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(e -> e.expiresAt() <= now);
+    }
+
+    private void put(String shareToken, Entry entry) {
+        if (cache.size() >= maxEntries && !cache.containsKey(shareToken)) {
+            evictExpired();
+            // 仍然超限则按迭代顺序淘汰到 90%
+            Iterator<Entry> it = cache.values().iterator();
+            int target = maxEntries * 9 / 10;
+            while (cache.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        cache.put(shareToken, entry);
+    }
+
+    /**
+     * @param share     分享记录，null 表示令牌无效
+     * @param expiresAt 缓存到期时间
+     */
+    private record Entry(BundleShare share, long expiresAt) {
+    }
+}
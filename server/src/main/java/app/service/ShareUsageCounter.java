@@ -0,0 +1,106 @@
+// 分享使用次数计数
+// 导入时只在内存中累加，定时批量写回 used_count = used_count + ?，避免热门分享链接上的整行更新和丢失更新
+
+package app.service;
+
+import com.mybatisflex.core.row.BatchArgsSetter;
+import com.mybatisflex.core.row.Db;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class ShareUsageCounter {
+    private static final Logger log = LoggerFactory.getLogger(ShareUsageCounter.class);
+
+    // shareId -> 尚未写回的增量；值不可变，通过 merge 原子累加，写回时整体取走
+    private final Map<String, Usage> pending = new ConcurrentHashMap<>();
+
+    public ShareUsageCounter(MeterRegistry meterRegistry) {
+        Gauge.builder("anydoor.share.usage.pending", pending, Map::size)
+                .description("等待写回使用次数的分享数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次使用
+     *
+     * @param shareId 分享记录ID
+     * @param usedAt  使用时间
+     */
+    public void record(String shareId, long usedAt) {
+        pending.merge(shareId, new Usage(1, usedAt), Usage::plus);
+    }
+
+    /**
+     * @return 尚未写回的使用次数，用于展示时叠加到数据库值上
+     */
+    public long pendingCount(String shareId) {
+        Usage usage = pending.get(shareId);
+        return usage == null ? 0 : usage.count();
+    }
+
+    /**
+     * 批量写回
+     */
+    @Scheduled(fixedDelayString = "${anydoor.share.usage-flush-interval-ms:5000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<String> shareIds = new ArrayList<>(pending.keySet());
+        List<Object[]> batch = new ArrayList<>(shareIds.size());
+        for (String shareId : shareIds) {
+            Usage usage = pending.remove(shareId);
+            if (usage != null) {
+                batch.add(new Object[]{usage.count(), usage.lastUsedAt(), shareId});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            Db.updateBatch("UPDATE bundle_share SET used_count = used_count + ?, "
+                            + "last_used_at = GREATEST(COALESCE(last_used_at, 0), ?) WHERE id = ?",
+                    new BatchArgsSetter() {
+                        @Override
+                        public int getBatchSize() {
+                            return batch.size();
+                        }
+
+                        @Override
+                        public Object[] getSqlArgs(int index) {
+                            return batch.get(index);
+                        }
+                    });
+        } catch (Exception e) {
+            // 写回失败则合并回待写队列，下一轮重试
+            for (Object[] args : batch) {
+                pending.merge((String) args[2], new Usage((Long) args[0], (Long) args[1]), Usage::plus);
+            }
+            log.warn("Failed to flush usage for {} shares: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private record Usage(long count, long lastUsedAt) {
+        Usage plus(Usage other) {
+            return new Usage(count + other.count, Math.max(lastUsedAt, other.lastUsedAt));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package app.service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Self-contained CAPTCHA tokens: {@code base64url(nonce[16] | expireAt[8] | tag[16] | mac[32])} with
+ * {@code tag = HMAC-SHA256(key, nonce | expireAt)} truncated to 16 bytes and
+ * {@code mac = HMAC-SHA256(key, nonce | expireAt | SHA-256(CODE))}.
+ * <p>
+ * The code itself is not in the token; validation recomputes the MAC from the submitted code.
+ * The tag proves the nonce was issued by us before it is recorded, so forged tokens cannot
+ * fill up the replay filter.
+ * <p>
+ * Any node sharing the key can validate without a shared store. One-time use is enforced per
+ * node by recording the nonce in a {@link RotatingBloomFilter} on the first attempt, whether or
+ * not the code was right, so a token cannot be used to brute-force its code.
+ */
+class StatelessCaptchaTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int NONCE_BYTES = 16;
+    private static final int TAG_BYTES = 16;
+    private static final int MAC_BYTES = 32;
+    private static final int TOKEN_BYTES = NONCE_BYTES + Long.BYTES + TAG_BYTES + MAC_BYTES;
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final RotatingBloomFilter usedNonces;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    // Mac and MessageDigest are not thread-safe
+    private final ThreadLocal<Mac> macs;
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    StatelessCaptchaTokens(byte[] secret, long ttlMillis, int expectedPerWindow) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.usedNonces = new RotatingBloomFilter(ttlMillis, expectedPerWindow, 0.0001);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Issue a token for the code
+     */
+    String issue(String code) {
+        byte[] nonce = new byte[NONCE_BYTES];
+        secureRandom.nextBytes(nonce);
+        long expireAt = System.currentTimeMillis() + ttlMillis;
+
+        ByteBuffer token = ByteBuffer.allocate(TOKEN_BYTES);
+        token.put(nonce).putLong(expireAt).put(tag(nonce, expireAt)).put(mac(nonce, expireAt, code));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    /**
+     * Check the submitted code against the token; each token can be tried once
+     */
+    boolean verify(String token, String inputCode) {
+        byte[] raw;
+        try {
+            raw = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (raw.length != TOKEN_BYTES) {
+            return false;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        byte[] nonce = new byte[NONCE_BYTES];
+        buffer.get(nonce);
+        long expireAt = buffer.getLong();
+        byte[] tag = new byte[TAG_BYTES];
+        buffer.get(tag);
+        byte[] expected = new byte[MAC_BYTES];
+        buffer.get(expected);
+
+        if (expireAt < System.currentTimeMillis() || expireAt > System.currentTimeMillis() + ttlMillis) {
+            return false;
+        }
+        if (!MessageDigest.isEqual(tag, tag(nonce, expireAt))) {
+            return false;
+        }
+        // Burn the nonce before comparing, so a wrong guess also uses up the token
+        if (!usedNonces.add(nonce)) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected, mac(nonce, expireAt, inputCode));
+    }
+
+    private byte[] tag(byte[] nonce, long expireAt) {
+        Mac mac = macs.get();
+        mac.update(nonce);
+        mac.update(ByteBuffer.allocate(Long.BYTES).putLong(expireAt).array());
+        return Arrays.copyOf(mac.doFinal(), TAG_BYTES);
+    }
+
+    private byte[] mac(byte[] nonce, long expireAt, String code) {
+        MessageDigest digest = digests.get();
+        byte[] codeHash = digest.digest(code.toUpperCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+
+        Mac mac = macs.get();
+        mac.update(nonce);
+        mac.update(ByteBuffer.allocate(Long.BYTES).putLong(expireAt).array());
+        mac.update(codeHash);
+        return mac.doFinal();
+    }
+}
@@ -0,0 +1,18 @@
+package app.service;
+
+/**
+ * 请求过多异常
+ * 由限流或资源池饱和触发，统一映射为 HTTP 429，并通过 Retry-After 告知客户端重试间隔
+ */
+public class TooManyRequestsException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -11,17 +11,29 @@ import app.model.CookieBundle;
 import app.model.User;
 import app.model.UserGroup;
 import app.model.UserGroupRelation;
+import app.model.dto.KeysetCursor;
 import app.model.dto.SubAccountWithGroupsDTO;
+import com.mybatisflex.core.query.QueryMethods;
 import com.mybatisflex.core.query.QueryWrapper;
+import com.mybatisflex.core.row.Db;
+import com.mybatisflex.core.row.Row;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -34,23 +46,35 @@ import static app.model.table.UserTableDef.USER;
 public class UserService {
     private static final Logger log = LoggerFactory.getLogger(UserService.class);
 
+    // 批量创建子账号单次最多处理的行数（同时限制 IN 列表长度）
+    public static final int BULK_SUB_ACCOUNT_LIMIT = 1000;
+    // 批量插入每批行数，每批一个短事务
+    private static final int INSERT_BATCH_SIZE = 200;
+
     private final UserMapper userMapper;
     private final UserGroupMapper groupMapper;
     private final UserGroupRelationMapper relationMapper;
     private final CookieBundleMapper cookieBundleMapper;
-    private final BCryptPasswordEncoder passwordEncoder;
+    private final PasswordHashService passwordHashService;
+    private final TransactionTemplate transactionTemplate;
+    private final int defaultMaxMembers;
 
     public UserService(
             UserMapper userMapper,
             UserGroupMapper groupMapper,
             UserGroupRelationMapper relationMapper,
-            CookieBundleMapper cookieBundleMapper
+            CookieBundleMapper cookieBundleMapper,
+            PasswordHashService passwordHashService,
+            TransactionTemplate transactionTemplate,
+            @Value("${anydoor.group.default-max-members:100}") int defaultMaxMembers
     ) {
         this.userMapper = userMapper;
         this.groupMapper = groupMapper;
         this.relationMapper = relationMapper;
         this.cookieBundleMapper = cookieBundleMapper;
-        this.passwordEncoder = new BCryptPasswordEncoder();
+        this.passwordHashService = passwordHashService;
+        this.transactionTemplate = transactionTemplate;
+        this.defaultMaxMembers = defaultMaxMembers;
     }
 
     /**
@@ -77,7 +101,7 @@ public class UserService {
         User user = new User();
         user.id = UUID.randomUUID().toString();
         user.username = username;
-        user.passwordHash = passwordEncoder.encode(password);
+        user.passwordHash = passwordHashService.encode(password);
         user.email = email;
         user.displayName = username;  // 默认显示名称为用户名
         user.role = "NORMAL_USER";
@@ -90,6 +114,56 @@ public class UserService {
         return user;
     }
 
+    /**
+     * 查找父账号的默认组（组名为"用户名的默认组"），不存在则创建
+     *
+     * @param parentUser 父账号
+     * @return 默认组ID
+     */
+    private String resolveDefaultGroupId(User parentUser) {
+        String parentUserId = parentUser.id;
+        String defaultGroupName = parentUser.username + "的默认组";
+        UserGroup defaultGroup = groupMapper.selectOneByQuery(
+                QueryWrapper.create()
+                        .where(USER_GROUP.OWNER_ID.eq(parentUserId))
+                        .and(USER_GROUP.GROUP_NAME.eq(defaultGroupName))
+        );
+
+        if (defaultGroup == null) {
+            // 创建默认组
+            defaultGroup = new UserGroup();
+            defaultGroup.id = UUID.randomUUID().toString();
+            defaultGroup.groupName = defaultGroupName;
+            defaultGroup.ownerId = parentUserId;
+            defaultGroup.description = "默认组";
+            defaultGroup.status = "ACTIVE";
+            defaultGroup.maxMembers = defaultMaxMembers;
+            defaultGroup.createdAt = System.currentTimeMillis();
+            defaultGroup.updatedAt = System.currentTimeMillis();
+
+            groupMapper.insert(defaultGroup);
+
+            // 创建父账号与默认组的关系（如果不存在）
+            UserGroupRelation parentRelation = relationMapper.selectOneByQuery(
+                    QueryWrapper.create()
+                            .where(USER_GROUP_RELATION.USER_ID.eq(parentUserId))
+                            .and(USER_GROUP_RELATION.GROUP_ID.eq(defaultGroup.id))
+            );
+
+            if (parentRelation == null) {
+                parentRelation = new UserGroupRelation();
+                parentRelation.id = UUID.randomUUID().toString();
+                parentRelation.userId = parentUserId;
+                parentRelation.groupId = defaultGroup.id;
+                parentRelation.roleInGroup = "OWNER";
+                parentRelation.joinedAt = System.currentTimeMillis();
+                relationMapper.insert(parentRelation);
+            }
+        }
+
+        return defaultGroup.id;
+    }
+
     /**
      * 创建子账号
      *
@@ -121,54 +195,14 @@ public class UserService {
         // 3. 确定组ID：如果未指定，创建或使用默认组
         String finalGroupId = groupId;
         if (finalGroupId == null || finalGroupId.isBlank()) {
-            // 查找父账号的默认组（组名为"用户名的默认组"）
-            String defaultGroupName = parentUser.username + "的默认组";
-            UserGroup defaultGroup = groupMapper.selectOneByQuery(
-                    QueryWrapper.create()
-                            .where(USER_GROUP.OWNER_ID.eq(parentUserId))
-                            .and(USER_GROUP.GROUP_NAME.eq(defaultGroupName))
-            );
-
-            if (defaultGroup == null) {
-                // 创建默认组
-                defaultGroup = new UserGroup();
-                defaultGroup.id = UUID.randomUUID().toString();
-                defaultGroup.groupName = defaultGroupName;
-                defaultGroup.ownerId = parentUserId;
-                defaultGroup.description = "默认组";
-                defaultGroup.status = "ACTIVE";
-                defaultGroup.maxMembers = 100;
-                defaultGroup.createdAt = System.currentTimeMillis();
-                defaultGroup.updatedAt = System.currentTimeMillis();
-
-                groupMapper.insert(defaultGroup);
-
-                // 创建父账号与默认组的关系（如果不存在）
-                UserGroupRelation parentRelation = relationMapper.selectOneByQuery(
-                        QueryWrapper.create()
-                                .where(USER_GROUP_RELATION.USER_ID.eq(parentUserId))
-                                .and(USER_GROUP_RELATION.GROUP_ID.eq(defaultGroup.id))
-                );
-
-                if (parentRelation == null) {
-                    parentRelation = new UserGroupRelation();
-                    parentRelation.id = UUID.randomUUID().toString();
-                    parentRelation.userId = parentUserId;
-                    parentRelation.groupId = defaultGroup.id;
-                    parentRelation.roleInGroup = "OWNER";
-                    parentRelation.joinedAt = System.currentTimeMillis();
-                    relationMapper.insert(parentRelation);
-                }
-            }
-
-            finalGroupId = defaultGroup.id;
+            finalGroupId = resolveDefaultGroupId(parentUser);
         }
 
         // 4. 创建子账号
         User subAccount = new User();
         subAccount.id = UUID.randomUUID().toString();
         subAccount.username = username;
-        subAccount.passwordHash = passwordEncoder.encode(password);
+        subAccount.passwordHash = passwordHashService.encode(password);
         subAccount.email = email;
         subAccount.displayName = username;  // 默认显示名称为用户名
         subAccount.role = "NORMAL_USER";
@@ -192,6 +226,237 @@ public class UserService {
         return subAccount;
     }
 
+    /**
+     * 批量创建子账号
+     * <p>
+     * 用户名唯一性用一条 IN 查询预检，默认组只解析一次，密码哈希并行计算（不在事务内），
+     * 用户和组关系按批插入，每批一个短事务。
+     * 指定的组必须由调用者管理（OWNER / ADMIN），并与批量添加成员一样受组成员上限约束。
+     *
+     * @param parentUserId 父账号ID
+     * @param specs        待创建的子账号
+     * @return 逐行结果，与输入顺序一致
+     */
+    public List<BulkSubAccountResult> createSubAccounts(String parentUserId, List<SubAccountSpec> specs) {
+        if (specs == null || specs.isEmpty()) {
+            throw new IllegalArgumentException("子账号列表不能为空");
+        }
+        if (specs.size() > BULK_SUB_ACCOUNT_LIMIT) {
+            throw new IllegalArgumentException("单次最多创建 " + BULK_SUB_ACCOUNT_LIMIT + " 个子账号");
+        }
+
+        User parentUser = userMapper.selectOneById(parentUserId);
+        if (parentUser == null) {
+            throw new IllegalArgumentException("父账号不存在");
+        }
+
+        BulkSubAccountResult[] results = new BulkSubAccountResult[specs.size()];
+
+        // 1. 逐行校验，并排除本批内重复的用户名
+        Set<String> seen = new HashSet<>();
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < specs.size(); i++) {
+            SubAccountSpec spec = specs.get(i);
+            if (spec == null || spec.username() == null || spec.username().isBlank()
+                    || spec.password() == null || spec.password().isBlank()) {
+                results[i] = BulkSubAccountResult.failed(spec, "INVALID", "用户名和密码不能为空");
+            } else if (spec.password().length() < 6) {
+                results[i] = BulkSubAccountResult.failed(spec, "INVALID", "密码至少需要6位");
+            } else if (!seen.add(spec.username())) {
+                results[i] = BulkSubAccountResult.failed(spec, "DUPLICATE", "用户名在本批中重复");
+            } else {
+                candidates.add(i);
+            }
+        }
+
+        // 2. 一次 IN 查询检查已存在的用户名
+        if (!candidates.isEmpty()) {
+            Set<String> taken = new HashSet<>(userMapper.selectObjectListByQueryAs(
+                    QueryWrapper.create().select(USER.USERNAME).where(USER.USERNAME.in(seen)),
+                    String.class
+            ));
+            candidates.removeIf(i -> {
+                if (taken.contains(specs.get(i).username())) {
+                    results[i] = BulkSubAccountResult.failed(specs.get(i), "USERNAME_TAKEN", "用户名已存在");
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        // 3. 校验指定的组：必须存在，且调用者是该组的 OWNER / ADMIN（全局管理员除外）
+        Set<String> requestedGroupIds = new HashSet<>();
+        for (int i : candidates) {
+            String groupId = specs.get(i).groupId();
+            if (groupId != null && !groupId.isBlank()) {
+                requestedGroupIds.add(groupId);
+            }
+        }
+        Map<String, UserGroup> groups = new HashMap<>();
+        if (!requestedGroupIds.isEmpty()) {
+            groupMapper.selectListByQuery(
+                    QueryWrapper.create().where(USER_GROUP.ID.in(requestedGroupIds))
+            ).forEach(g -> groups.put(g.id, g));
+
+            Set<String> managedGroupIds = new HashSet<>();
+            if ("GLOBAL_ADMIN".equals(parentUser.role)) {
+                managedGroupIds.addAll(groups.keySet());
+            } else if (!groups.isEmpty()) {
+                managedGroupIds.addAll(relationMapper.selectObjectListByQueryAs(
+                        QueryWrapper.create()
+                                .select(USER_GROUP_RELATION.GROUP_ID)
+                                .where(USER_GROUP_RELATION.USER_ID.eq(parentUserId))
+                                .and(USER_GROUP_RELATION.GROUP_ID.in(groups.keySet()))
+                                .and(USER_GROUP_RELATION.ROLE_IN_GROUP.in("OWNER", "ADMIN")),
+                        String.class
+                ));
+            }
+
+            candidates.removeIf(i -> {
+                String groupId = specs.get(i).groupId();
+                if (groupId == null || groupId.isBlank()) {
+                    return false;
+                }
+                if (!groups.containsKey(groupId)) {
+                    results[i] = BulkSubAccountResult.failed(specs.get(i), "GROUP_NOT_FOUND", "组不存在");
+                    return true;
+                }
+                if (!managedGroupIds.contains(groupId)) {
+                    results[i] = BulkSubAccountResult.failed(specs.get(i), "FORBIDDEN", "没有权限向该组添加成员");
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        if (candidates.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        // 4. 默认组只解析一次
+        String defaultGroupId = null;
+        boolean needsDefaultGroup = candidates.stream()
+                .map(i -> specs.get(i).groupId())
+                .anyMatch(g -> g == null || g.isBlank());
+        if (needsDefaultGroup) {
+            defaultGroupId = transactionTemplate.execute(status -> resolveDefaultGroupId(parentUser));
+            groups.computeIfAbsent(defaultGroupId, groupMapper::selectOneById);
+        }
+
+        // 5. 按组检查成员上限（与批量添加成员一致），一次分组计数；超出上限的行返回 GROUP_FULL
+        Map<String, Long> remaining = new HashMap<>();
+        groups.values().forEach(g -> remaining.put(g.id, (long) memberCapOf(g)));
+        Db.selectListByQuery(
+                QueryWrapper.create()
+                        .select(USER_GROUP_RELATION.GROUP_ID, QueryMethods.count().as("member_count"))
+                        .from(USER_GROUP_RELATION)
+                        .where(USER_GROUP_RELATION.GROUP_ID.in(remaining.keySet()))
+                        .groupBy(USER_GROUP_RELATION.GROUP_ID)
+        ).forEach(row -> remaining.merge(row.getString("group_id"), -row.getLong("member_count"), Long::sum));
+
+        String fallbackGroupId = defaultGroupId;
+        candidates.removeIf(i -> {
+            String groupId = specs.get(i).groupId();
+            String target = groupId == null || groupId.isBlank() ? fallbackGroupId : groupId;
+            if (remaining.getOrDefault(target, 0L) <= 0) {
+                results[i] = BulkSubAccountResult.failed(specs.get(i), "GROUP_FULL", "组成员已达上限");
+                return true;
+            }
+            remaining.merge(target, -1L, Long::sum);
+            return false;
+        });
+
+        if (candidates.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        // 6. 并行计算密码哈希
+        List<String> hashes = passwordHashService.encodeAll(
+                candidates.stream().map(i -> specs.get(i).password()).toList()
+        );
+
+        // 7. 分批插入用户和组关系
+        long now = System.currentTimeMillis();
+        for (int from = 0; from < candidates.size(); from += INSERT_BATCH_SIZE) {
+            List<Integer> chunk = candidates.subList(from, Math.min(from + INSERT_BATCH_SIZE, candidates.size()));
+            List<User> users = new ArrayList<>(chunk.size());
+            List<UserGroupRelation> relations = new ArrayList<>(chunk.size());
+
+            for (int k = 0; k < chunk.size(); k++) {
+                SubAccountSpec spec = specs.get(chunk.get(k));
+
+                User subAccount = new User();
+                subAccount.id = UUID.randomUUID().toString();
+                subAccount.username = spec.username();
+                subAccount.passwordHash = hashes.get(from + k);
+                subAccount.email = spec.email() == null || spec.email().isBlank() ? null : spec.email();
+                subAccount.displayName = spec.username();
+                subAccount.role = "NORMAL_USER";
+                subAccount.status = "ACTIVE";
+                subAccount.parentUserId = parentUserId;
+                subAccount.createdAt = now;
+                subAccount.updatedAt = now;
+                users.add(subAccount);
+
+                UserGroupRelation relation = new UserGroupRelation();
+                relation.id = UUID.randomUUID().toString();
+                relation.userId = subAccount.id;
+                relation.groupId = spec.groupId() == null || spec.groupId().isBlank() ? defaultGroupId : spec.groupId();
+                relation.roleInGroup = "MEMBER";
+                relation.joinedAt = now;
+                relations.add(relation);
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    userMapper.insertBatch(users);
+                    relationMapper.insertBatch(relations);
+                });
+                for (int k = 0; k < chunk.size(); k++) {
+                    results[chunk.get(k)] = BulkSubAccountResult.created(specs.get(chunk.get(k)), users.get(k).id);
+                }
+            } catch (DataIntegrityViolationException e) {
+                // 预检之后被并发注册占用了用户名或邮箱等，整批回滚
+                log.warn("Bulk sub-account chunk rejected: parentUserId={}, size={}, reason={}",
+                        parentUserId, chunk.size(), e.getMostSpecificCause().getMessage());
+                for (int i : chunk) {
+                    results[i] = BulkSubAccountResult.failed(specs.get(i), "CONFLICT", "用户名或邮箱冲突，请重试");
+                }
+            }
+        }
+
+        log.info("Bulk sub-accounts created: parentUserId={}, requested={}, created={}",
+                parentUserId, specs.size(), Arrays.stream(results).filter(r -> "CREATED".equals(r.status())).count());
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 组成员上限（旧数据 max_members 为空时使用配置的默认值）
+     */
+    private int memberCapOf(UserGroup group) {
+        return group.maxMembers != null ? group.maxMembers : defaultMaxMembers;
+    }
+
+    /**
+     * 批量创建子账号的输入行
+     */
+    public record SubAccountSpec(String username, String password, String email, String groupId) {
+    }
+
+    /**
+     * 批量创建子账号的单行结果
+     * status：CREATED / INVALID / DUPLICATE / USERNAME_TAKEN / GROUP_NOT_FOUND / FORBIDDEN / GROUP_FULL / CONFLICT
+     */
+    public record BulkSubAccountResult(String username, String userId, String status, String message) {
+        static BulkSubAccountResult created(SubAccountSpec spec, String userId) {
+            return new BulkSubAccountResult(spec.username(), userId, "CREATED", null);
+        }
+
+        static BulkSubAccountResult failed(SubAccountSpec spec, String status, String message) {
+            return new BulkSubAccountResult(spec == null ? null : spec.username(), null, status, message);
+        }
+    }
+
     /**
      * 用户注册并创建组（组主账号）
      *
@@ -213,7 +478,7 @@ public class UserService {
         group.ownerId = user.id;
         group.description = username + " 的团队";
         group.status = "ACTIVE";
-        group.maxMembers = 100;
+        group.maxMembers = defaultMaxMembers;
         group.createdAt = System.currentTimeMillis();
         group.updatedAt = System.currentTimeMillis();
 
@@ -260,11 +525,20 @@ public class UserService {
             throw new IllegalStateException("账号已被禁用");
         }
 
-        // 3. 验证密码
-        if (!passwordEncoder.matches(password, user.passwordHash)) {
+        // 3. 验证密码（在独立的校验线程池中执行）
+        PasswordHashService.VerifyResult result = passwordHashService.verify(password, user.passwordHash);
+        if (!result.matched()) {
             return Optional.empty();
         }
 
+        // 4. 存储的哈希强度低于当前配置时，回写新哈希
+        if (result.upgradedHash() != null) {
+            user.passwordHash = result.upgradedHash();
+            user.updatedAt = System.currentTimeMillis();
+            userMapper.update(user);
+            log.info("Password rehashed on login: userId={}", user.id);
+        }
+
         return Optional.of(user);
     }
 
@@ -300,22 +574,25 @@ public class UserService {
      * @param oldPassword 旧密码
      * @param newPassword 新密码
      */
-    @Transactional
     public void updatePassword(String userId, String oldPassword, String newPassword) {
         User user = userMapper.selectOneById(userId);
         if (user == null) {
             throw new IllegalArgumentException("用户不存在");
         }
 
-        // 验证旧密码
-        if (!passwordEncoder.matches(oldPassword, user.passwordHash)) {
+        // 验证旧密码并计算新哈希（可能排队等待哈希线程，不占用数据库连接）
+        if (!passwordHashService.verify(oldPassword, user.passwordHash).matched()) {
             throw new IllegalArgumentException("旧密码错误");
         }
-
-        // 更新密码
-        user.passwordHash = passwordEncoder.encode(newPassword);
-        user.updatedAt = System.currentTimeMillis();
-        userMapper.update(user);
+        String newHash = passwordHashService.encode(newPassword);
+
+        // 事务内只做一条 UPDATE；以旧哈希为条件，期间密码已被并发修改则拒绝
+        int updated = transactionTemplate.execute(status -> Db.updateBySql(
+                "UPDATE user SET password_hash = ?, updated_at = ? WHERE id = ? AND password_hash = ?",
+                newHash, System.currentTimeMillis(), userId, user.passwordHash));
+        if (updated == 0) {
+            throw new IllegalArgumentException("密码已被修改，请重试");
+        }
     }
 
     /**
@@ -443,6 +720,9 @@ public class UserService {
             throw new IllegalArgumentException("用户不存在");
         }
 
+        // audit_log 没有外键，审计记录保留但 user_id 置空
+        Db.updateBySql("UPDATE audit_log SET user_id = NULL WHERE user_id = ?", userId);
+
         // 删除用户
         userMapper.deleteById(userId);
     }
@@ -482,36 +762,6 @@ public class UserService {
         return affectedCount;
     }
 
-    /**
-     * 删除主账号（连带所有子账号）
-     *
-     * @param userId 主账号ID
-     * @return 被删除的用户数量
-     */
-    @Transactional
-    public int deleteUserWithChildren(String userId) {
-        User mainUser = userMapper.selectOneById(userId);
-        if (mainUser == null) {
-            throw new IllegalArgumentException("用户不存在");
-        }
-
-        int deletedCount = 1;
-
-        // 删除所有子账号
-        java.util.List<User> subAccounts = userMapper.selectListByQuery(
-                QueryWrapper.create().where(USER.PARENT_USER_ID.eq(userId))
-        );
-        for (User sub : subAccounts) {
-            userMapper.deleteById(sub.id);
-            deletedCount++;
-        }
-
-        // 删除主账号
-        userMapper.deleteById(userId);
-
-        return deletedCount;
-    }
-
     /**
      * 查询指定父账号的所有子账号
      *
@@ -537,31 +787,81 @@ public class UserService {
     }
 
     /**
-     * 查询子账号列表（含所属组信息）
+     * 分页查询子账号列表（含所属组信息）
+     * <p>
+     * 按创建时间倒序，以 (created_at, id) 作为游标；无论页大小如何，只执行两条查询。
      *
      * @param parentUserId 父账号ID
-     * @return 子账号列表（含所属组）
+     * @param status       状态过滤（可选）
+     * @param cursor       上一页最后一条的游标（首页为空）
+     * @param limit        每页数量
+     * @return 当前页及下一页游标
      */
-    public List<SubAccountWithGroupsDTO> getSubAccountsWithGroups(String parentUserId) {
-        // 查询子账号
-        List<User> subAccounts = userMapper.selectListByQuery(
+    public SubAccountPage listSubAccountsWithGroups(String parentUserId, String status, KeysetCursor cursor, int limit) {
+        // 多取一条用于判断是否还有下一页
+        List<User> rows = userMapper.selectListByQuery(
+                subAccountQuery(parentUserId, status, cursor).limit(limit + 1)
+        );
+
+        String nextCursor = null;
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            User last = rows.get(limit - 1);
+            nextCursor = new KeysetCursor(last.createdAt, last.id).encode();
+        }
+        return new SubAccountPage(withGroupNames(rows), nextCursor);
+    }
+
+    /**
+     * 子账号分页结果，nextCursor 为空表示没有更多数据
+     */
+    public record SubAccountPage(List<SubAccountWithGroupsDTO> subAccounts, String nextCursor) {
+    }
+
+    private QueryWrapper subAccountQuery(String parentUserId, String status, KeysetCursor cursor) {
+        QueryWrapper query = QueryWrapper.create()
+                .select(USER.ID, USER.USERNAME, USER.EMAIL, USER.STATUS, USER.CREATED_AT)
+                .where(USER.PARENT_USER_ID.eq(parentUserId));
+
+        if (status != null && !status.isBlank()) {
+            query.and(USER.STATUS.eq(status));
+        }
+
+        if (cursor != null) {
+            query.and(USER.CREATED_AT.lt(cursor.timestamp())
+                    .or(USER.CREATED_AT.eq(cursor.timestamp())
+                            .and(USER.ID.lt(cursor.id()))));
+        }
+
+        return query.orderBy(USER.CREATED_AT.desc(), USER.ID.desc());
+    }
+
+    /**
+     * 一次关联查询取出这批子账号的所属组名，在内存中按用户分组
+     */
+    private List<SubAccountWithGroupsDTO> withGroupNames(List<User> subAccounts) {
+        if (subAccounts.isEmpty()) {
+            return List.of();
+        }
+
+        List<String> userIds = subAccounts.stream().map(u -> u.id).toList();
+        List<Row> rows = Db.selectListByQuery(
                 QueryWrapper.create()
-                        .where(USER.PARENT_USER_ID.eq(parentUserId))
-                        .orderBy(USER.CREATED_AT.desc())
+                        .select(USER_GROUP_RELATION.USER_ID, USER_GROUP.GROUP_NAME)
+                        .from(USER_GROUP_RELATION)
+                        .leftJoin(USER_GROUP).on(USER_GROUP.ID.eq(USER_GROUP_RELATION.GROUP_ID))
+                        .where(USER_GROUP_RELATION.USER_ID.in(userIds))
         );
 
-        // 为每个子账号查询所属组
+        Map<String, List<String>> groupNamesByUser = new HashMap<>();
+        for (Row row : rows) {
+            groupNamesByUser.computeIfAbsent(row.getString("user_id"), k -> new ArrayList<>())
+                    .add(row.getString("group_name"));
+        }
+
         return subAccounts.stream()
                 .map(user -> {
-                    List<UserGroupRelation> relations = relationMapper.selectListByQuery(
-                            QueryWrapper.create().where(USER_GROUP_RELATION.USER_ID.eq(user.id))
-                    );
-
-                    List<String> groupNames = relations.stream()
-                            .map(r -> {
-                                UserGroup group = groupMapper.selectOneById(r.groupId);
-                                return group != null ? group.groupName : null;
-                            })
+                    List<String> groupNames = groupNamesByUser.getOrDefault(user.id, List.of()).stream()
                             .filter(Objects::nonNull)
                             .sorted()  // 按字母顺序排序
                             .collect(Collectors.toList());
@@ -605,7 +905,7 @@ public class UserService {
             if (password.length() < 6) {
                 throw new IllegalArgumentException("密码至少需要6位");
             }
-            subAccount.passwordHash = passwordEncoder.encode(password);
+            subAccount.passwordHash = passwordHashService.encode(password);
         }
 
         // 更新所属组
@@ -637,52 +937,4 @@ public class UserService {
         log.info("SubAccount updated: subAccountId={}, operatorId={}, passwordChanged={}, groupChanged={}",
                 subAccountId, operatorId, password != null, groupId != null);
     }
-
-    /**
-     * 级联删除子账号及其所有关联数据
-     *
-     * @param subAccountId 子账号ID
-     * @param operatorId   操作者ID
-     * @return 删除的站点数量
-     */
-    @Transactional
-    public int deleteSubAccountWithCascade(String subAccountId, String operatorId) {
-        // 验证子账号存在
-        User subAccount = userMapper.selectOneById(subAccountId);
-        if (subAccount == null) {
-            throw new IllegalArgumentException("子账号不存在");
-        }
-
-        // 验证操作者是父账号
-        if (!operatorId.equals(subAccount.parentUserId)) {
-            throw new IllegalStateException("权限不足，只有主账号可以删除其子账号");
-        }
-
-        // 1. 删除子账号创建的所有站点
-        List<CookieBundle> bundles = cookieBundleMapper.selectListByQuery(
-                QueryWrapper.create().where(COOKIE_BUNDLE.OWNER_ID.eq(subAccountId))
-        );
-
-        int deletedBundlesCount = 0;
-        for (CookieBundle bundle : bundles) {
-            // 删除站点（Cookie 数据存储在 payload 字段中，一起删除）
-            cookieBundleMapper.deleteById(bundle.id);
-            deletedBundlesCount++;
-        }
-
-        log.info("Deleted {} bundles owned by subAccount {}", deletedBundlesCount, subAccountId);
-
-        // 2. 删除子账号的组关联关系
-        relationMapper.deleteByQuery(
-                QueryWrapper.create().where(USER_GROUP_RELATION.USER_ID.eq(subAccountId))
-        );
-
-        // 3. 删除子账号
-        userMapper.deleteById(subAccountId);
-
-        log.info("SubAccount deleted with cascade: subAccountId={}, operatorId={}, bundlesDeleted={}",
-                subAccountId, operatorId, deletedBundlesCount);
-
-        return deletedBundlesCount;
-    }
 }
@@ -8,6 +8,9 @@
 SET FOREIGN_KEY_CHECKS = 0;
 
 -- 删除现有表（按依赖关系逆序删除）
+DROP TABLE IF EXISTS maintenance_checkpoint;
+DROP TABLE IF EXISTS sa_token_invalidation;
+DROP TABLE IF EXISTS sa_token_store;
 DROP TABLE IF EXISTS cross_group_share;
 DROP TABLE IF EXISTS bundle_share;
 DROP TABLE IF EXISTS user_bundle_reference;
@@ -40,7 +43,7 @@ CREATE TABLE IF NOT EXISTS user
 CREATE INDEX idx_user_username ON user (username);
 CREATE INDEX idx_user_role ON user (role);
 CREATE INDEX idx_user_status ON user (status);
-CREATE INDEX idx_user_parent ON user (parent_user_id);
+CREATE INDEX idx_user_parent_created ON user (parent_user_id, created_at, id);
 
 INSERT INTO anydoor.user (id, username, password_hash, email, display_name, role, status, parent_user_id, created_at, updated_at)
 VALUES ('admin', 'admin', '$2a$10$UMnMrn2Q6I6fO.V4cG8H4.DZhbHQf1PScELLCor2VEOLluF1wpkqS', 'admin@anydoor.local', null, 'GLOBAL_ADMIN', 'ACTIVE', null, 1763033312000, 1763033312000);
@@ -94,8 +97,10 @@ CREATE TABLE IF NOT EXISTS user_group_relation
   DEFAULT CHARSET = utf8mb4 COMMENT ='用户组关系表';
 
 -- 用户组关系表索引
+-- 成员分页按 (joined_at, id) 键集翻页，可选按角色过滤；成员校验走 uk_user_group
 CREATE INDEX idx_relation_user ON user_group_relation (user_id);
-CREATE INDEX idx_relation_group ON user_group_relation (group_id);
+CREATE INDEX idx_relation_group_joined ON user_group_relation (group_id, joined_at, id);
+CREATE INDEX idx_relation_group_role_joined ON user_group_relation (group_id, role_in_group, joined_at, id);
 
 -- 4. Cookie Bundle 表
 CREATE TABLE IF NOT EXISTS cookie_bundle
@@ -110,7 +115,7 @@ CREATE TABLE IF NOT EXISTS cookie_bundle
     host         VARCHAR(255) NOT NULL COMMENT '站点hostname',
     etld1        VARCHAR(255) NOT NULL COMMENT 'eTLD+1',
     payload      MEDIUMTEXT   NOT NULL COMMENT '加密后的数据',
-    expire_at    BIGINT       NOT NULL COMMENT '过期时间戳',
+    expire_at    BIGINT       NOT NULL COMMENT '过期时间戳，0 表示永不过期',
     created_at   BIGINT       NOT NULL COMMENT '创建时间戳',
     updated_at   BIGINT COMMENT '更新时间戳',
     accessed_at  BIGINT COMMENT '最后访问时间戳',
@@ -176,6 +181,7 @@ CREATE TABLE IF NOT EXISTS user_bundle_reference
     share_id       VARCHAR(64) COMMENT '分享记录ID（通过哪个分享导入的）',
     imported_at    BIGINT COMMENT '导入时间戳',
     imported_from  VARCHAR(512) COMMENT '导入来源',
+    hidden_at      BIGINT COMMENT '设置为不可见的时间戳（过期清理依据）',
 
     -- 外键约束
     CONSTRAINT fk_reference_user FOREIGN KEY (user_id)
@@ -192,10 +198,11 @@ CREATE TABLE IF NOT EXISTS user_bundle_reference
 
 -- 用户 Bundle 引用表索引
 CREATE INDEX idx_reference_user ON user_bundle_reference (user_id);
-CREATE INDEX idx_reference_bundle ON user_bundle_reference (bundle_id);
+CREATE INDEX idx_reference_bundle_share ON user_bundle_reference (bundle_id, share_id, reference_type, is_visible);
 CREATE INDEX idx_reference_type ON user_bundle_reference (reference_type);
 CREATE INDEX idx_reference_visible ON user_bundle_reference (is_visible);
 CREATE INDEX idx_reference_share ON user_bundle_reference (share_id);
+CREATE INDEX idx_reference_hidden ON user_bundle_reference (is_visible, hidden_at);
 
 -- 7. 跨组分享表
 CREATE TABLE IF NOT EXISTS cross_group_share
@@ -226,7 +233,7 @@ CREATE INDEX idx_cross_share_target_group ON cross_group_share (target_group_id)
 -- 8. 操作审计日志表
 CREATE TABLE IF NOT EXISTS audit_log
 (
-    id            VARCHAR(64) PRIMARY KEY COMMENT '日志ID',
+    id            VARCHAR(64) NOT NULL COMMENT '日志ID',
     user_id       VARCHAR(64) COMMENT '操作用户ID',
     action        VARCHAR(64) NOT NULL COMMENT '操作类型',
     resource_type VARCHAR(64) COMMENT '资源类型',
@@ -237,17 +244,58 @@ CREATE TABLE IF NOT EXISTS audit_log
     error_message TEXT COMMENT '错误信息',
     created_at    BIGINT      NOT NULL COMMENT '操作时间戳',
 
-    -- 外键约束
-    CONSTRAINT fk_audit_user FOREIGN KEY (user_id)
-        REFERENCES user (id) ON DELETE SET NULL
+    -- 分区表的主键必须包含分区列；分区表不支持外键，删除账号时由 AccountDeletionService 将 user_id 置空
+    PRIMARY KEY (id, created_at)
 ) ENGINE = InnoDB
-  DEFAULT CHARSET = utf8mb4 COMMENT ='操作审计日志表';
+  DEFAULT CHARSET = utf8mb4 COMMENT ='操作审计日志表'
+    -- 按月 RANGE 分区，月度分区由 AuditPartitionManager 在启动时和每天定时从 p_future 拆出（新建表时 p_future 为空，只改元数据）
+    PARTITION BY RANGE (created_at) (
+        PARTITION p_future VALUES LESS THAN MAXVALUE
+        );
 
 -- 操作审计日志表索引
-CREATE INDEX idx_audit_user ON audit_log (user_id);
-CREATE INDEX idx_audit_action ON audit_log (action);
-CREATE INDEX idx_audit_resource ON audit_log (resource_type, resource_id);
-CREATE INDEX idx_audit_created ON audit_log (created_at);
+-- 每种筛选条件都以 (created_at, id) 结尾，时间范围 + 键集分页可直接按索引顺序读取
+CREATE INDEX idx_audit_created ON audit_log (created_at, id);
+CREATE INDEX idx_audit_user_created ON audit_log (user_id, created_at, id);
+CREATE INDEX idx_audit_action_created ON audit_log (action, created_at, id);
+CREATE INDEX idx_audit_resource_created ON audit_log (resource_type, resource_id, created_at, id);
+
+-- 9. 登录会话存储表（anydoor.session.store=db 时使用）
+CREATE TABLE IF NOT EXISTS sa_token_store
+(
+    store_key  VARCHAR(255) PRIMARY KEY COMMENT 'Sa-Token 存储键',
+    str_value  TEXT COMMENT '字符串值',
+    obj_value  MEDIUMBLOB COMMENT '对象值（Java 序列化）',
+    expire_at  BIGINT NOT NULL COMMENT '过期时间戳，-1 表示永不过期',
+    updated_at BIGINT NOT NULL COMMENT '更新时间戳'
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4 COMMENT ='登录会话存储表';
+
+-- 登录会话存储表索引
+CREATE INDEX idx_sa_token_expire ON sa_token_store (expire_at);
+
+-- 登录会话失效通知表（多实例间同步登出、踢下线）
+CREATE TABLE IF NOT EXISTS sa_token_invalidation
+(
+    id         BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '自增ID',
+    store_key  VARCHAR(255) NOT NULL COMMENT '被改写或删除的 Sa-Token 存储键',
+    created_at BIGINT       NOT NULL COMMENT '发布时间戳'
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4 COMMENT ='登录会话失效通知表';
+CREATE INDEX idx_sa_token_invalidation_created ON sa_token_invalidation (created_at);
+
+-- 10. 维护任务断点表（孤立数据清理等可续跑任务）
+CREATE TABLE IF NOT EXISTS maintenance_checkpoint
+(
+    task       VARCHAR(64) PRIMARY KEY COMMENT '维护任务类型',
+    job_id     VARCHAR(64) NOT NULL COMMENT '最近写入断点的任务ID',
+    phase      VARCHAR(32) NOT NULL COMMENT '当前阶段',
+    last_id    VARCHAR(64) NOT NULL DEFAULT '' COMMENT '当前阶段已处理到的最后一个ID',
+    processed  BIGINT      NOT NULL DEFAULT 0 COMMENT '累计处理行数',
+    state      VARCHAR(16) NOT NULL COMMENT '状态: RUNNING/CANCELLED/FAILED/DONE',
+    updated_at BIGINT      NOT NULL COMMENT '更新时间戳'
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4 COMMENT ='维护任务断点表';
 
 -- ============================================
 -- 初始化数据（可选）
@@ -254,7 +254,7 @@ function initRegisterModal() {
                 const data = await res.json();
                 if (data.uuid && data.imageBase64) {
                     currentCaptchaUuid = data.uuid;
-                    img.src = 'data:image/jpeg;base64,' + data.imageBase64;
+                    img.src = 'data:' + (data.mimeType || 'image/jpeg') + ';base64,' + data.imageBase64;
                 }
             }
         } catch (e) {
@@ -0,0 +1,47 @@
+package app.model.dto;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KeysetCursorTest {
+
+    @Test
+    void encodeParseRoundTrip() {
+        KeysetCursor cursor = new KeysetCursor(1_700_000_000_000L, "5f0c-uuid");
+        assertEquals("1700000000000_5f0c-uuid", cursor.encode());
+        assertEquals(cursor, KeysetCursor.parse(cursor.encode()));
+    }
+
+    @Test
+    void idMayContainSeparator() {
+        // 只按第一个下划线拆分
+        KeysetCursor cursor = KeysetCursor.parse("42_a_b_c");
+        assertEquals(42, cursor.timestamp());
+        assertEquals("a_b_c", cursor.id());
+    }
+
+    @Test
+    void negativeTimestampRoundTrips() {
+        KeysetCursor cursor = new KeysetCursor(-1, "x");
+        assertEquals(cursor, KeysetCursor.parse(cursor.encode()));
+    }
+
+    @Test
+    void blankCursorMeansFirstPage() {
+        assertNull(KeysetCursor.parse(null));
+        assertNull(KeysetCursor.parse(""));
+        assertNull(KeysetCursor.parse("   "));
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.parse("123"));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.parse("_id"));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.parse("123_"));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.parse("abc_id"));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.parse("99999999999999999999_id"));
+    }
+}
@@ -0,0 +1,50 @@
+package app.service;
+
+import app.service.CacheCleanupService.OrphanType;
+import app.service.CacheCleanupService.Segment;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CacheCleanupServiceTest {
+
+    @Test
+    void freshRunScansEveryTypeOnce() {
+        assertEquals(List.of(
+                new Segment(OrphanType.SITES, "", null),
+                new Segment(OrphanType.USERS, "", null),
+                new Segment(OrphanType.GROUPS, "", null)
+        ), CacheCleanupService.scanPlan(OrphanType.SITES, ""));
+    }
+
+    @Test
+    void resumeWrapsAroundToCoverIdsBeforeCheckpoint() {
+        assertEquals(List.of(
+                new Segment(OrphanType.USERS, "u-500", null),
+                new Segment(OrphanType.GROUPS, "", null),
+                new Segment(OrphanType.SITES, "", null),
+                new Segment(OrphanType.USERS, "", "u-500")
+        ), CacheCleanupService.scanPlan(OrphanType.USERS, "u-500"));
+    }
+
+    @Test
+    void resumeAtLastPhaseStillVisitsEarlierTypes() {
+        assertEquals(List.of(
+                new Segment(OrphanType.GROUPS, "g-9", null),
+                new Segment(OrphanType.SITES, "", null),
+                new Segment(OrphanType.USERS, "", null),
+                new Segment(OrphanType.GROUPS, "", "g-9")
+        ), CacheCleanupService.scanPlan(OrphanType.GROUPS, "g-9"));
+    }
+
+    @Test
+    void resumeAtPhaseBoundaryNeedsNoWrapSegment() {
+        assertEquals(List.of(
+                new Segment(OrphanType.USERS, "", null),
+                new Segment(OrphanType.GROUPS, "", null),
+                new Segment(OrphanType.SITES, "", null)
+        ), CacheCleanupService.scanPlan(OrphanType.USERS, ""));
+    }
+}
@@ -0,0 +1,74 @@
+package app.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ExpiringCaptchaStoreTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void takeIsOneTime() {
+        ExpiringCaptchaStore store = new ExpiringCaptchaStore(registry, 60_000, 10);
+        store.put("k", "ABCD");
+
+        assertEquals("ABCD", store.take("k"));
+        assertNull(store.take("k"));
+    }
+
+    @Test
+    void evictsOldestFirstWhenFull() {
+        ExpiringCaptchaStore store = new ExpiringCaptchaStore(registry, 60_000, 3);
+        for (int i = 0; i < 5; i++) {
+            store.put("k" + i, "code" + i);
+        }
+
+        // 按写入顺序淘汰最早的两个
+        assertNull(store.take("k0"));
+        assertNull(store.take("k1"));
+        assertEquals("code2", store.take("k2"));
+        assertEquals("code4", store.take("k4"));
+        assertEquals(2.0, removed("capacity"));
+    }
+
+    @Test
+    void consumedKeysAreNotCountedAsEvicted() {
+        ExpiringCaptchaStore store = new ExpiringCaptchaStore(registry, 60_000, 2);
+        store.put("k0", "code0");
+        store.take("k0");
+        store.put("k1", "code1");
+        store.put("k2", "code2");
+
+        assertEquals(0.0, removed("capacity"));
+        assertEquals("code1", store.take("k1"));
+    }
+
+    @Test
+    void expiredEntriesAreRemovedOnNextPut() throws InterruptedException {
+        ExpiringCaptchaStore store = new ExpiringCaptchaStore(registry, 50, 10);
+        store.put("old", "code");
+
+        Thread.sleep(100);
+        store.put("new", "code");
+
+        assertEquals(1.0, removed("expired"));
+        assertNull(store.take("old"));
+        assertEquals("code", store.take("new"));
+    }
+
+    @Test
+    void takeRejectsExpiredEntryBeforeTrim() throws InterruptedException {
+        ExpiringCaptchaStore store = new ExpiringCaptchaStore(registry, 50, 10);
+        store.put("k", "code");
+
+        Thread.sleep(100);
+        assertNull(store.take("k"));
+    }
+
+    private double removed(String reason) {
+        return registry.get("anydoor.captcha.store.removed").tag("reason", reason).counter().count();
+    }
+}
@@ -0,0 +1,112 @@
+package app.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpscRingBufferTest {
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(4, new MpscRingBuffer<Integer>(4).capacity());
+        assertEquals(8, new MpscRingBuffer<Integer>(5).capacity());
+        assertEquals(1024, new MpscRingBuffer<Integer>(1024).capacity());
+    }
+
+    @Test
+    void offerFailsWhenFullAndSucceedsAfterDrain() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        List<Integer> sink = new ArrayList<>();
+        assertEquals(1, buffer.drainTo(sink, 1));
+        assertTrue(buffer.offer(4));
+        assertFalse(buffer.offer(5));
+    }
+
+    @Test
+    void wrapsAroundInClaimOrder() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        List<Integer> sink = new ArrayList<>();
+
+        // 多轮写满再读空，序号越过数组长度后仍按写入顺序读出
+        int next = 0;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(buffer.offer(next++));
+            }
+            buffer.drainTo(sink, Integer.MAX_VALUE);
+        }
+
+        assertEquals(IntStream.range(0, 15).boxed().toList(), sink);
+        assertEquals(0, buffer.size());
+        assertNull(buffer.peek());
+    }
+
+    @Test
+    void drainRespectsMaxAndPeekShowsOldest() {
+        MpscRingBuffer<String> buffer = new MpscRingBuffer<>(8);
+        buffer.offer("a");
+        buffer.offer("b");
+        buffer.offer("c");
+
+        List<String> sink = new ArrayList<>();
+        assertEquals(2, buffer.drainTo(sink, 2));
+        assertEquals(List.of("a", "b"), sink);
+        assertEquals("c", buffer.peek());
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    void concurrentProducersLoseNothing() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 10_000;
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(1024);
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        CountDownLatch done = new CountDownLatch(producers);
+
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            pool.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(base + i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        List<Integer> sink = new ArrayList<>();
+        while (sink.size() < producers * perProducer) {
+            if (buffer.drainTo(sink, 256) == 0) {
+                Thread.onSpinWait();
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        assertEquals(producers * perProducer, sink.stream().distinct().count());
+        // 同一生产者的元素保持写入顺序
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            List<Integer> own = sink.stream().filter(v -> v >= base && v < base + perProducer).toList();
+            assertEquals(IntStream.range(base, base + perProducer).boxed().toList(), own);
+        }
+    }
+}
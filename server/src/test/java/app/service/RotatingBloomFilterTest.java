@@ -0,0 +1,57 @@
+package app.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RotatingBloomFilterTest {
+
+    private final SecureRandom random = new SecureRandom();
+
+    @Test
+    void rejectsKeySeenInCurrentWindow() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(60_000, 1000, 0.0001);
+        byte[] key = randomKey();
+
+        assertTrue(filter.add(key));
+        assertFalse(filter.add(key));
+        assertTrue(filter.add(randomKey()));
+    }
+
+    @Test
+    void keyStaysVisibleForOneMoreWindowThenExpires() throws InterruptedException {
+        RotatingBloomFilter filter = new RotatingBloomFilter(100, 1000, 0.0001);
+        byte[] key = randomKey();
+        assertTrue(filter.add(key));
+
+        // 轮换一次后仍在上一代中
+        Thread.sleep(130);
+        assertFalse(filter.add(key));
+
+        // 超过两个窗口没有轮换，两代都已过期
+        Thread.sleep(250);
+        assertTrue(filter.add(key));
+    }
+
+    @Test
+    void falsePositivesStayRare() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(60_000, 10_000, 0.001);
+        int rejected = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (!filter.add(randomKey())) {
+                rejected++;
+            }
+        }
+        // 期望约 0.1%，留足余量
+        assertTrue(rejected < 100, "false positives: " + rejected);
+    }
+
+    private byte[] randomKey() {
+        byte[] key = new byte[16];
+        random.nextBytes(key);
+        return key;
+    }
+}
@@ -0,0 +1,132 @@
+package app.service;
+
+import app.model.AuditLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentFileAuditSinkTest {
+
+    @TempDir
+    Path dir;
+
+    private SegmentFileAuditSink sink;
+
+    @AfterEach
+    void tearDown() {
+        if (sink != null) {
+            sink.close();
+        }
+    }
+
+    @Test
+    void writeThenScanRoundTrip() throws IOException {
+        sink = newSink(64);
+        AuditLog event = event("e1", "u1", 1_000);
+        event.resourceType = "BUNDLE";
+        event.resourceId = "b1";
+        event.ipAddress = "10.0.0.1";
+        event.userAgent = "curl/8.0";
+        event.errorMessage = null;
+
+        assertEquals(1, sink.write(List.of(event)));
+
+        List<AuditLog> found = sink.scan(0, 2_000, null, 10);
+        assertEquals(1, found.size());
+        AuditLog read = found.get(0);
+        assertEquals("e1", read.id);
+        assertEquals("u1", read.userId);
+        assertEquals("LOGIN", read.action);
+        assertEquals("BUNDLE", read.resourceType);
+        assertEquals("b1", read.resourceId);
+        assertEquals("10.0.0.1", read.ipAddress);
+        assertEquals("curl/8.0", read.userAgent);
+        assertEquals("SUCCESS", read.result);
+        assertNull(read.errorMessage);
+        assertEquals(1_000, read.createdAt);
+    }
+
+    @Test
+    void scanFiltersByHalfOpenRangeUserAndLimit() throws IOException {
+        sink = newSink(64);
+        sink.write(List.of(event("a", "u1", 100), event("b", "u2", 200)));
+        sink.write(List.of(event("c", "u1", 300), event("d", "u1", 400)));
+
+        assertEquals(List.of("b", "c"), ids(sink.scan(200, 400, null, 10)));
+        assertEquals(List.of("a", "c", "d"), ids(sink.scan(0, 1_000, "u1", 10)));
+        assertEquals(List.of("a", "b"), ids(sink.scan(0, 1_000, null, 2)));
+        assertTrue(sink.scan(500, 1_000, null, 10).isEmpty());
+    }
+
+    @Test
+    void findsEventsOlderThanSegmentCreation() throws IOException {
+        sink = newSink(64);
+        // 事件时间远早于分段文件名中的创建时间，仍应按块索引命中
+        long old = System.currentTimeMillis() - 3_600_000;
+        sink.write(List.of(event("old", "u1", old)));
+
+        assertEquals(List.of("old"), ids(sink.scan(old - 1, old + 1, null, 10)));
+    }
+
+    @Test
+    void scansAcrossRolledSegments() throws IOException {
+        // 分段上限为 0 MB，每次写入都会滚动到新分段
+        sink = newSink(0);
+        sink.write(List.of(event("a", "u1", 100)));
+        sink.write(List.of(event("b", "u1", 200)));
+        sink.write(List.of(event("c", "u1", 300)));
+
+        assertEquals(List.of("a", "b", "c"), ids(sink.scan(0, 1_000, null, 10)));
+    }
+
+    @Test
+    void forEachStopsWhenVisitorReturnsFalse() throws IOException {
+        sink = newSink(64);
+        sink.write(List.of(event("a", "u1", 100), event("b", "u1", 200), event("c", "u1", 300)));
+
+        List<String> visited = new ArrayList<>();
+        sink.forEach(0, 1_000, event -> {
+            visited.add(event.id);
+            return !"b".equals(event.id);
+        });
+        assertEquals(List.of("a", "b"), visited);
+    }
+
+    @Test
+    void survivesReopen() throws IOException {
+        sink = newSink(64);
+        sink.write(List.of(event("a", "u1", 100)));
+        sink.close();
+
+        sink = newSink(64);
+        sink.write(List.of(event("b", "u1", 200)));
+        assertEquals(List.of("a", "b"), ids(sink.scan(0, 1_000, null, 10)));
+    }
+
+    private SegmentFileAuditSink newSink(long maxSegmentMb) throws IOException {
+        return new SegmentFileAuditSink(dir.toString(), maxSegmentMb, 60, 90);
+    }
+
+    private static AuditLog event(String id, String userId, long createdAt) {
+        AuditLog event = new AuditLog();
+        event.id = id;
+        event.userId = userId;
+        event.action = "LOGIN";
+        event.result = "SUCCESS";
+        event.createdAt = createdAt;
+        return event;
+    }
+
+    private static List<String> ids(List<AuditLog> events) {
+        return events.stream().map(e -> e.id).toList();
+    }
+}
@@ -0,0 +1,71 @@
+package app.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatelessCaptchaTokensTest {
+
+    private static final byte[] SECRET = "test-secret-test-secret-test-sec".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void acceptsCorrectCodeOnceIgnoringCase() {
+        StatelessCaptchaTokens tokens = new StatelessCaptchaTokens(SECRET, 60_000, 1000);
+        String token = tokens.issue("AbCd");
+
+        assertTrue(tokens.verify(token, "abcd"));
+        // 重放
+        assertFalse(tokens.verify(token, "abcd"));
+    }
+
+    @Test
+    void wrongGuessBurnsToken() {
+        StatelessCaptchaTokens tokens = new StatelessCaptchaTokens(SECRET, 60_000, 1000);
+        String token = tokens.issue("ABCD");
+
+        assertFalse(tokens.verify(token, "WXYZ"));
+        assertFalse(tokens.verify(token, "ABCD"));
+    }
+
+    @Test
+    void rejectsExpiredToken() throws InterruptedException {
+        StatelessCaptchaTokens tokens = new StatelessCaptchaTokens(SECRET, 50, 1000);
+        String token = tokens.issue("ABCD");
+
+        Thread.sleep(120);
+        assertFalse(tokens.verify(token, "ABCD"));
+    }
+
+    @Test
+    void rejectsTokenFromAnotherKey() {
+        StatelessCaptchaTokens tokens = new StatelessCaptchaTokens(SECRET, 60_000, 1000);
+        StatelessCaptchaTokens other = new StatelessCaptchaTokens(
+                "another-secret-another-secret-an".getBytes(StandardCharsets.UTF_8), 60_000, 1000);
+
+        assertFalse(tokens.verify(other.issue("ABCD"), "ABCD"));
+    }
+
+    @Test
+    void rejectsTamperedAndMalformedTokens() {
+        StatelessCaptchaTokens tokens = new StatelessCaptchaTokens(SECRET, 60_000, 1000);
+        byte[] raw = Base64.getUrlDecoder().decode(tokens.issue("ABCD"));
+        // 改动 expireAt 的最低字节，标签不再匹配
+        raw[16 + 7] ^= 1;
+        String tampered = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+
+        assertFalse(tokens.verify(tampered, "ABCD"));
+        assertFalse(tokens.verify("not base64 !", "ABCD"));
+        assertFalse(tokens.verify("AAAA", "ABCD"));
+    }
+
+    @Test
+    void issuesDistinctTokensForSameCode() {
+        StatelessCaptchaTokens tokens = new StatelessCaptchaTokens(SECRET, 60_000, 1000);
+        assertNotEquals(tokens.issue("ABCD"), tokens.issue("ABCD"));
+    }
+}